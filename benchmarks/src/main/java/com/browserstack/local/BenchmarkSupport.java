@@ -0,0 +1,98 @@
+package com.browserstack.local;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline stand-ins for the real binary, shared by the benchmarks.
+ *
+ * The benchmarks live in the com.browserstack.local package so they can reach
+ * the package-private parts of the binding.
+ */
+final class BenchmarkSupport {
+
+    // A pid that is never running, so no exit watcher outlives a benchmark iteration
+    static final int DEAD_PID = Integer.MAX_VALUE - 1;
+
+    private static final byte[] STOP_RESPONSE =
+            "{\"status\":\"success\",\"message\":\"BrowserStackLocal stopped successfully\"}".getBytes();
+    private static final byte[] EMPTY = new byte[0];
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * @return script that answers --version like the real binary does
+     */
+    static File createFakeBinary() throws IOException {
+        File binary = File.createTempFile("BrowserStackLocal", ".sh");
+        FileWriter writer = new FileWriter(binary);
+        try {
+            writer.write("#!/bin/sh\necho \"BrowserStack Local version 8.0\"\n");
+        } finally {
+            writer.close();
+        }
+        binary.setExecutable(true);
+        binary.deleteOnExit();
+        return binary;
+    }
+
+    static Map<String, String> options(File binary) {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("key", "benchmark-key");
+        options.put("binarypath", binary.getAbsolutePath());
+        options.put("localIdentifier", "benchmark");
+        options.put("forcelocal", "true");
+        options.put("only", "localhost,8080,0");
+        return options;
+    }
+
+    /**
+     * Local whose binary invocations return canned responses without forking.
+     */
+    static class StubLocal extends Local {
+        private final byte[] startResponse;
+
+        StubLocal() {
+            this(DEAD_PID);
+        }
+
+        /**
+         * @param tunnelPid Pid reported for the tunnel; a live one keeps the
+         *                  instance connected until it is stopped
+         */
+        StubLocal(long tunnelPid) {
+            startResponse = ("{\"state\":\"connected\",\"pid\":" + tunnelPid
+                    + ",\"message\":{\"message\":\"Connected\"}}").getBytes();
+        }
+
+        @Override
+        protected LocalProcess runCommand(List<String> command) {
+            final byte[] stdout = command.contains("start") ? startResponse : STOP_RESPONSE;
+            return new LocalProcess() {
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(stdout);
+                }
+
+                public InputStream getErrorStream() {
+                    return new ByteArrayInputStream(EMPTY);
+                }
+
+                public int waitFor() {
+                    return 0;
+                }
+            };
+        }
+
+        @Override
+        void killProcess(int pid) {
+            // The reported pid may be the benchmark's own JVM
+        }
+    }
+}
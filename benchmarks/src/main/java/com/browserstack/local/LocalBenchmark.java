@@ -0,0 +1,94 @@
+package com.browserstack.local;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call overhead of the binding's hot paths on a single thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LocalBenchmark {
+
+    private static final String CONNECTED_RESPONSE =
+            "{\"state\":\"connected\",\"pid\":4321,\"message\":{\"message\":\"Connected\"}}\n";
+
+    private File binary;
+    private Map<String, String> options;
+    private Map<String, String> commandOptions;
+    private LocalOptions prebuiltCommandOptions;
+    private Local local;
+    private Local runningLocal;
+
+    @Setup
+    public void setUp() throws Exception {
+        binary = BenchmarkSupport.createFakeBinary();
+        options = BenchmarkSupport.options(binary);
+        commandOptions = new HashMap<String, String>(options);
+        commandOptions.put("onlyCommand", "true");
+        prebuiltCommandOptions = LocalOptions.fromMap(commandOptions);
+        local = new BenchmarkSupport.StubLocal();
+
+        // isRunning() on a connected instance, whose tunnel is the JVM running the benchmark
+        runningLocal = new BenchmarkSupport.StubLocal(ProcessSupport.currentPid());
+        runningLocal.start(options);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        runningLocal.stop();
+        binary.delete();
+    }
+
+    @Benchmark
+    public List<String> buildStartCommand() throws Exception {
+        local.start(commandOptions);
+        return local.command;
+    }
+
+    @Benchmark
+    public List<String> buildStartCommandFromLocalOptions() throws Exception {
+        local.start(prebuiltCommandOptions);
+        return local.command;
+    }
+
+    @Benchmark
+    public TunnelInfo parseStatus() throws Exception {
+        return TunnelStatusParser.parse(CONNECTED_RESPONSE);
+    }
+
+    @Benchmark
+    public String resolveBinary() throws Exception {
+        return LocalBinary.resolve(binary.getAbsolutePath());
+    }
+
+    @Benchmark
+    public boolean isRunning() throws Exception {
+        return runningLocal.isRunning();
+    }
+
+    @Benchmark
+    public void startStop() throws Exception {
+        local.start(options);
+        local.stop();
+    }
+}
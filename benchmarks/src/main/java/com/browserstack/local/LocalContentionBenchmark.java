@@ -0,0 +1,71 @@
+package com.browserstack.local;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same paths as {@link LocalBenchmark}, hammered by several threads
+ * sharing one Local instance, the way parallel test workers use it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class LocalContentionBenchmark {
+
+    private File binary;
+    private Map<String, String> commandOptions;
+    private Local local;
+
+    @Setup
+    public void setUp() throws Exception {
+        binary = BenchmarkSupport.createFakeBinary();
+        commandOptions = new HashMap<String, String>(BenchmarkSupport.options(binary));
+        commandOptions.put("onlyCommand", "true");
+
+        // Connected, with the JVM running the benchmark as its tunnel
+        local = new BenchmarkSupport.StubLocal(ProcessSupport.currentPid());
+        local.start(BenchmarkSupport.options(binary));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        local.stop();
+        binary.delete();
+    }
+
+    @Benchmark
+    public boolean isRunning() throws Exception {
+        return local.isRunning();
+    }
+
+    @Benchmark
+    public List<String> buildStartCommand() throws Exception {
+        local.start(commandOptions);
+        return local.command;
+    }
+
+    @Benchmark
+    public String resolveBinary() throws Exception {
+        return LocalBinary.resolve(binary.getAbsolutePath());
+    }
+}
@@ -0,0 +1,78 @@
+package com.browserstack.local.testing;
+
+import com.browserstack.local.Local;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+import org.junit.jupiter.api.extension.TestInstancePostProcessor;
+
+import java.util.function.Function;
+
+/**
+ * JUnit 5 extension running the test class with the tunnel of the
+ * {@link TunnelSession}. The tunnel is started by the first class using the
+ * extension and stopped once the launcher finished running all classes.
+ *
+ * <pre>
+ * &#64;ExtendWith(BrowserStackLocalExtension.class)
+ * class CheckoutTest {
+ *     &#64;LocalIdentifier
+ *     String localIdentifier;
+ * }
+ * </pre>
+ *
+ * Test methods and constructors can also declare a {@link Local} parameter,
+ * or a String parameter annotated with {@link LocalIdentifier}.
+ */
+public class BrowserStackLocalExtension implements BeforeAllCallback, TestInstancePostProcessor, ParameterResolver {
+
+    private static final ExtensionContext.Namespace NAMESPACE = ExtensionContext.Namespace.create(BrowserStackLocalExtension.class);
+
+    public void beforeAll(ExtensionContext context) throws Exception {
+        tunnel(context);
+    }
+
+    public void postProcessTestInstance(Object testInstance, ExtensionContext context) throws Exception {
+        tunnel(context);
+        IdentifierInjection.inject(testInstance, TunnelSession.get().getLocalIdentifier());
+    }
+
+    public boolean supportsParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+        Class<?> type = parameterContext.getParameter().getType();
+        return type == Local.class
+                || (type == String.class && parameterContext.isAnnotated(LocalIdentifier.class));
+    }
+
+    public Object resolveParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+        try {
+            Local local = tunnel(extensionContext);
+            if (parameterContext.getParameter().getType() == Local.class) return local;
+            return TunnelSession.get().getLocalIdentifier();
+        } catch (Exception e) {
+            throw new ParameterResolutionException("BrowserStack Local tunnel could not be started", e);
+        }
+    }
+
+    /**
+     * Starts the session's tunnel unless it is running, and has it stopped
+     * when the root context, which lives as long as the launcher session,
+     * is closed.
+     */
+    private static Local tunnel(ExtensionContext context) throws Exception {
+        context.getRoot().getStore(NAMESPACE).getOrComputeIfAbsent(SessionResource.class,
+                new Function<Class<SessionResource>, SessionResource>() {
+                    public SessionResource apply(Class<SessionResource> key) {
+                        return new SessionResource();
+                    }
+                }, SessionResource.class);
+        return TunnelSession.get().acquire();
+    }
+
+    private static final class SessionResource implements ExtensionContext.Store.CloseableResource {
+        public void close() {
+            TunnelSession.get().close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.browserstack.local.testing;
+
+import org.testng.IClassListener;
+import org.testng.IExecutionListener;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestClass;
+
+/**
+ * TestNG listener running the suites with the tunnel of the
+ * {@link TunnelSession}. The tunnel is started before the first suite and
+ * stopped once TestNG finished running all suites.
+ *
+ * <pre>
+ * &#64;Listeners(BrowserStackLocalListener.class)
+ * public class CheckoutTest {
+ *     &#64;LocalIdentifier
+ *     String localIdentifier;
+ * }
+ * </pre>
+ *
+ * The local identifier is also set as the {@value #LOCAL_IDENTIFIER_ATTRIBUTE}
+ * attribute of each suite.
+ */
+public class BrowserStackLocalListener implements IExecutionListener, ISuiteListener, IClassListener {
+
+    public static final String LOCAL_IDENTIFIER_ATTRIBUTE = "browserstack.localIdentifier";
+
+    public void onExecutionStart() {
+    }
+
+    public void onExecutionFinish() {
+        TunnelSession.get().close();
+    }
+
+    public void onStart(ISuite suite) {
+        try {
+            TunnelSession.get().acquire();
+        } catch (Exception e) {
+            throw new IllegalStateException("BrowserStack Local tunnel could not be started", e);
+        }
+        suite.setAttribute(LOCAL_IDENTIFIER_ATTRIBUTE, TunnelSession.get().getLocalIdentifier());
+    }
+
+    public void onFinish(ISuite suite) {
+    }
+
+    public void onBeforeClass(ITestClass testClass) {
+        String localIdentifier = TunnelSession.get().getLocalIdentifier();
+        for (Object instance : testClass.getInstances(false)) {
+            try {
+                IdentifierInjection.inject(instance, localIdentifier);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    public void onAfterClass(ITestClass testClass) {
+    }
+}
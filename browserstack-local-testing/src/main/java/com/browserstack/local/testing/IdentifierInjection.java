@@ -0,0 +1,29 @@
+package com.browserstack.local.testing;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Sets the fields annotated with {@link LocalIdentifier}.
+ */
+final class IdentifierInjection {
+
+    private IdentifierInjection() {
+    }
+
+    static void inject(Object testInstance, String localIdentifier) throws IllegalAccessException {
+        for (Class<?> type = testInstance.getClass(); type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (!field.isAnnotationPresent(LocalIdentifier.class) || Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                if (field.getType() != String.class) {
+                    throw new IllegalStateException("@LocalIdentifier field " + type.getName() + "." + field.getName()
+                            + " must be a String");
+                }
+                field.setAccessible(true);
+                field.set(testInstance, localIdentifier);
+            }
+        }
+    }
+}
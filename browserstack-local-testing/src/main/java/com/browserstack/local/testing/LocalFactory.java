@@ -0,0 +1,19 @@
+package com.browserstack.local.testing;
+
+import com.browserstack.local.Local;
+
+/**
+ * Creates the {@link Local} instances of a {@link TunnelSession}. Tests of
+ * the extensions, or of code using them, supply one returning a subclass of
+ * {@link Local} with a stubbed {@code runCommand}.
+ */
+public interface LocalFactory {
+
+    LocalFactory DEFAULT = new LocalFactory() {
+        public Local create() {
+            return new Local();
+        }
+    };
+
+    Local create();
+}
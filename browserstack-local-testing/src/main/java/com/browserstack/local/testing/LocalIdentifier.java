@@ -0,0 +1,16 @@
+package com.browserstack.local.testing;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a String field, or a JUnit 5 test parameter, that receives the
+ * local identifier of the session's tunnel, e.g. for the
+ * "browserstack.localIdentifier" capability.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.PARAMETER})
+public @interface LocalIdentifier {
+}
@@ -0,0 +1,142 @@
+package com.browserstack.local.testing;
+
+import com.browserstack.local.Local;
+import com.browserstack.local.LocalOptions;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tunnels shared by all test classes of a test run.
+ *
+ * The first class that needs a tunnel starts it, every other class, also
+ * when running in parallel, gets the same one; concurrent starts of one
+ * {@link Local} wait for each other instead of spawning a second binary.
+ * The tunnels are started with "shareTunnel", so forked test JVMs on the
+ * same host attach to the tunnel of the first fork, and stopped when the
+ * test framework reports the end of the run.
+ *
+ * Unless {@link #configure(LocalOptions)} is called, the options are read
+ * from the "browserstack.accessKey" and "browserstack.localIdentifier"
+ * system properties, or the BROWSERSTACK_ACCESS_KEY and
+ * BROWSERSTACK_LOCAL_IDENTIFIER environment variables. Without a local
+ * identifier one is derived from the working directory, so that all forks
+ * of a build agree on it.
+ */
+public final class TunnelSession {
+
+    private static final TunnelSession INSTANCE = new TunnelSession();
+    private static final Duration STOP_TIMEOUT = Duration.ofSeconds(30);
+
+    private final ConcurrentHashMap<LocalOptions, Local> tunnels = new ConcurrentHashMap<LocalOptions, Local>();
+    private volatile LocalOptions options;
+    private volatile LocalFactory factory = LocalFactory.DEFAULT;
+
+    private TunnelSession() {
+    }
+
+    /**
+     * @return the session of this JVM
+     */
+    public static TunnelSession get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the options of the tunnel, instead of reading them from system
+     * properties and the environment.
+     *
+     * @param options Options of the tunnel, null to read them again
+     */
+    public void configure(LocalOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Sets the factory creating the {@link Local} instances, e.g. to stub
+     * the binary in tests.
+     *
+     * @param factory Factory to use, null to restore the default
+     */
+    public void setLocalFactory(LocalFactory factory) {
+        this.factory = factory != null ? factory : LocalFactory.DEFAULT;
+    }
+
+    /**
+     * Returns the tunnel of this session, starting it unless it is running.
+     *
+     * @return the running tunnel
+     * @throws Exception if the tunnel could not be started
+     */
+    public Local acquire() throws Exception {
+        LocalOptions options = options();
+        Local local = tunnels.get(options);
+        if (local == null) {
+            Local created = factory.create();
+            local = tunnels.putIfAbsent(options, created);
+            if (local == null) {
+                local = created;
+                Local.stopAllOnShutdown(STOP_TIMEOUT);
+            }
+        }
+        // A start while another thread starts the same instance joins it
+        if (!local.isRunning()) local.start(options);
+        return local;
+    }
+
+    /**
+     * @return local identifier of the tunnel of this session
+     */
+    public String getLocalIdentifier() {
+        return options().getLocalIdentifier();
+    }
+
+    /**
+     * Stops the tunnels of this session, or detaches from them while other
+     * forks still use them. Called by the extensions once the run finished.
+     */
+    public void close() {
+        List<Local> running = new ArrayList<Local>(tunnels.values());
+        tunnels.clear();
+        for (Local local : running) {
+            try {
+                local.stop(STOP_TIMEOUT);
+            } catch (Exception e) {
+                // Killed by stop(Duration), nothing left to clean up
+            }
+        }
+    }
+
+    private LocalOptions options() {
+        LocalOptions configured = options;
+        if (configured != null) return configured;
+
+        String key = setting("browserstack.accessKey", "BROWSERSTACK_ACCESS_KEY");
+        if (key == null) {
+            throw new IllegalStateException("Set the browserstack.accessKey system property or the "
+                    + "BROWSERSTACK_ACCESS_KEY environment variable, or call TunnelSession.configure()");
+        }
+        String identifier = setting("browserstack.localIdentifier", "BROWSERSTACK_LOCAL_IDENTIFIER");
+        if (identifier == null) {
+            byte[] dir = System.getProperty("user.dir").getBytes(StandardCharsets.UTF_8);
+            identifier = "session-" + UUID.nameUUIDFromBytes(dir).toString().substring(0, 8);
+        }
+        configured = LocalOptions.builder()
+                .key(key)
+                .localIdentifier(identifier)
+                .shareTunnel(true)
+                .build();
+        options = configured;
+        return configured;
+    }
+
+    private static String setting(String property, String variable) {
+        String value = System.getProperty(property);
+        if (value == null || value.isEmpty()) value = System.getenv(variable);
+        return value == null || value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,141 @@
+package com.browserstack.local.testing;
+
+import com.browserstack.local.Local;
+import com.browserstack.local.LocalOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.platform.testkit.engine.EngineTestKit;
+import org.junit.platform.testkit.engine.Events;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+
+class BrowserStackLocalExtensionTest {
+    private static final AtomicInteger STARTS = new AtomicInteger();
+    private static final AtomicInteger STOPS = new AtomicInteger();
+    private static final Set<String> IDENTIFIERS = ConcurrentHashMap.newKeySet();
+
+    private File binary;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        binary = File.createTempFile("BrowserStackLocal", ".sh");
+        FileWriter writer = new FileWriter(binary);
+        writer.write("#!/bin/sh\necho \"BrowserStack Local version 8.0\"\n");
+        writer.close();
+        binary.setExecutable(true);
+
+        STARTS.set(0);
+        STOPS.set(0);
+        IDENTIFIERS.clear();
+        TunnelSession.get().configure(LocalOptions.builder()
+                .key("stub")
+                .binaryPath(binary.getAbsolutePath())
+                .localIdentifier("extension-test")
+                .build());
+        TunnelSession.get().setLocalFactory(new LocalFactory() {
+            public Local create() {
+                return new StubLocal();
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        TunnelSession.get().configure(null);
+        TunnelSession.get().setLocalFactory(null);
+        binary.delete();
+    }
+
+    @Test
+    void classesInParallelShareOneTunnel() {
+        Events tests = EngineTestKit.engine("junit-jupiter")
+                .configurationParameter("junit.jupiter.execution.parallel.enabled", "true")
+                .configurationParameter("junit.jupiter.execution.parallel.mode.classes.default", "concurrent")
+                .selectors(selectClass(FirstClass.class), selectClass(SecondClass.class))
+                .execute()
+                .testEvents();
+
+        assertEquals(3, tests.succeeded().count());
+        assertEquals(0, tests.failed().count());
+        assertEquals(1, STARTS.get());
+        // Stopped once the launcher finished
+        assertEquals(1, STOPS.get());
+        assertEquals(1, IDENTIFIERS.size());
+        assertEquals("extension-test", IDENTIFIERS.iterator().next());
+    }
+
+    @ExtendWith(BrowserStackLocalExtension.class)
+    static class FirstClass {
+        @LocalIdentifier
+        String localIdentifier;
+
+        @Test
+        void injectsField() {
+            IDENTIFIERS.add(localIdentifier);
+        }
+
+        @Test
+        void resolvesParameter(@LocalIdentifier String identifier, Local local) throws Exception {
+            IDENTIFIERS.add(identifier);
+            assertTrue(local.isRunning());
+        }
+    }
+
+    @ExtendWith(BrowserStackLocalExtension.class)
+    static class SecondClass {
+        @LocalIdentifier
+        String localIdentifier;
+
+        @Test
+        void injectsField() {
+            IDENTIFIERS.add(localIdentifier);
+        }
+    }
+
+    /**
+     * Answers like the binary, reporting this JVM as the tunnel process so
+     * that it stays alive for the duration of the test.
+     */
+    private static class StubLocal extends Local {
+        @Override
+        protected LocalProcess runCommand(List<String> command) {
+            final String response;
+            if (command.contains("start")) {
+                STARTS.incrementAndGet();
+                String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+                response = "{\"state\":\"connected\",\"pid\":" + pid + ",\"message\":{\"message\":\"Connected\"}}";
+            } else {
+                STOPS.incrementAndGet();
+                response = "{\"status\":\"success\",\"message\":\"BrowserStackLocal stopped successfully\"}";
+            }
+            return new LocalProcess() {
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8));
+                }
+
+                public InputStream getErrorStream() {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+
+                public int waitFor() {
+                    return 0;
+                }
+            };
+        }
+    }
+}
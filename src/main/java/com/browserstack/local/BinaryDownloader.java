@@ -0,0 +1,228 @@
+package com.browserstack.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Downloads the binary so that no process ever sees a half-written file.
+ *
+ * The download is streamed into {@code <file>.part} and atomically renamed
+ * onto the destination. A lock on {@code <file>.lock} lets only one process
+ * per host download at a time; with {@link #downloadIfMissing} the others
+ * wait and then reuse its result.
+ * An interrupted download is resumed from the partial file when the server
+ * confirms, through {@code If-Range}, that the file did not change.
+ */
+final class BinaryDownloader {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 30000;
+    private static final int READ_TIMEOUT_MILLIS = 60000;
+    private static final long TRANSFER_CHUNK = 1 << 20;
+
+    // FileLock is held per JVM, threads of the same JVM have to queue up here first
+    private static final ConcurrentHashMap<String, Object> JVM_LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private BinaryDownloader() {
+    }
+
+    /**
+     * Downloads source onto destination, replacing it if it exists.
+     *
+     * @param source      URL of the binary
+     * @param destination File to create or replace
+     * @throws IOException if the download failed; a partial file is kept for the next attempt
+     */
+    static void download(URL source, File destination) throws IOException {
+        download(source, destination, false);
+    }
+
+    /**
+     * Downloads source onto destination unless destination exists. Whether
+     * it exists is decided once this call has its turn, so callers that found
+     * it missing at the same time download it only once.
+     *
+     * @param source      URL of the binary
+     * @param destination File to create
+     * @throws IOException if the download failed; a partial file is kept for the next attempt
+     */
+    static void downloadIfMissing(URL source, File destination) throws IOException {
+        download(source, destination, true);
+    }
+
+    private static void download(URL source, File destination, boolean ifMissing) throws IOException {
+        Path target = destination.getAbsoluteFile().toPath();
+
+        Object jvmLock = JVM_LOCKS.get(target.toString());
+        if (jvmLock == null) {
+            Object newLock = new Object();
+            jvmLock = JVM_LOCKS.putIfAbsent(target.toString(), newLock);
+            if (jvmLock == null) jvmLock = newLock;
+        }
+
+        synchronized (jvmLock) {
+            Files.createDirectories(target.getParent());
+            FileChannel lockChannel = FileChannel.open(sibling(target, ".lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                FileLock lock = lockChannel.lock();
+                try {
+                    if (ifMissing && Files.isRegularFile(target)) {
+                        // Someone else finished a download while we were waiting
+                        return;
+                    }
+                    fetch(source, target);
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                lockChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Asks the server whether the binary changed, without downloading it.
+     *
+     * @param source URL of the binary
+     * @param known  Validator of the local copy, as returned before, or null
+     * @return validator of the remote binary, the known one if the server
+     * reports it unchanged, or null if the server provides none
+     * @throws IOException if the server could not be asked
+     */
+    static String remoteValidator(URL source, String known) throws IOException {
+        URLConnection connection = source.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        if (!(connection instanceof HttpURLConnection)) {
+            return null;
+        }
+        HttpURLConnection http = (HttpURLConnection) connection;
+        try {
+            http.setRequestMethod("HEAD");
+            if (known != null) {
+                http.setRequestProperty(known.startsWith("\"") ? "If-None-Match" : "If-Modified-Since", known);
+            }
+            int status = http.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return known;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Server returned HTTP " + status + " for " + source);
+            }
+            return validator(http);
+        } finally {
+            http.disconnect();
+        }
+    }
+
+    private static void fetch(URL source, Path target) throws IOException {
+        Path part = sibling(target, ".part");
+        Path validatorFile = sibling(target, ".part.validator");
+
+        long offset = 0;
+        String validator = null;
+        if (Files.exists(part) && Files.exists(validatorFile)) {
+            offset = Files.size(part);
+            validator = new String(Files.readAllBytes(validatorFile), StandardCharsets.UTF_8);
+        }
+
+        URLConnection connection = source.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        if (offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            connection.setRequestProperty("If-Range", validator);
+        }
+
+        boolean resumed = false;
+        if (connection instanceof HttpURLConnection) {
+            int status = ((HttpURLConnection) connection).getResponseCode();
+            if (status == HttpURLConnection.HTTP_PARTIAL) {
+                resumed = true;
+            } else if (status == 416 && offset > 0) {
+                // The partial file does not fit the remote one, start over
+                ((HttpURLConnection) connection).disconnect();
+                Files.deleteIfExists(part);
+                Files.deleteIfExists(validatorFile);
+                fetch(source, target);
+                return;
+            } else if (status != HttpURLConnection.HTTP_OK) {
+                ((HttpURLConnection) connection).disconnect();
+                Files.deleteIfExists(part);
+                Files.deleteIfExists(validatorFile);
+                throw new IOException("Server returned HTTP " + status + " for " + source);
+            }
+        }
+        if (!resumed) {
+            offset = 0;
+            String newValidator = validator(connection);
+            if (newValidator != null) {
+                Files.write(validatorFile, newValidator.getBytes(StandardCharsets.UTF_8));
+            } else {
+                Files.deleteIfExists(validatorFile);
+            }
+        }
+
+        long expected = connection.getContentLengthLong();
+        long position = offset;
+        InputStream in = connection.getInputStream();
+        try {
+            ReadableByteChannel body = Channels.newChannel(in);
+            FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                out.truncate(offset);
+                long transferred;
+                while ((transferred = out.transferFrom(body, position, TRANSFER_CHUNK)) > 0) {
+                    position += transferred;
+                }
+                out.force(true);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        if (expected >= 0 && position - offset != expected) {
+            throw new IOException("Incomplete download of " + source + ", got " + (position - offset) + " of " + expected + " bytes");
+        }
+
+        File partFile = part.toFile();
+        partFile.setExecutable(true, true);
+        partFile.setReadable(true, true);
+        partFile.setWritable(true, true);
+        try {
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(validatorFile);
+    }
+
+    private static String validator(URLConnection connection) {
+        String etag = connection.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return connection.getHeaderField("Last-Modified");
+    }
+
+    private static Path sibling(Path path, String suffix) {
+        return path.resolveSibling(path.getFileName() + suffix);
+    }
+}
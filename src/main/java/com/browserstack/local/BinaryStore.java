@@ -0,0 +1,518 @@
+package com.browserstack.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Content-addressed store of binary versions.
+ *
+ * Every version lives in a directory named after the SHA-256 digest of the
+ * binary, so versions never overwrite each other and processes running an
+ * older one are not affected by an update. The {@code current} file points
+ * at the version to use and is replaced atomically. The current version is
+ * served right away; whether the server has a newer one is checked in the
+ * background, at most once per revalidation interval, and a newer one only
+ * becomes current once it is downloaded and validated.
+ */
+final class BinaryStore {
+
+    private static final long REVALIDATE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    // Versions kept on disk, including the current one
+    private static final int KEEP_VERSIONS = 2;
+    private static final long TRANSFER_CHUNK = 64L << 20;
+    private static final int HASH_BUFFER_BYTES = 64 * 1024;
+
+    private static final ConcurrentHashMap<String, ReentrantLock> JVM_LOCKS = new ConcurrentHashMap<String, ReentrantLock>();
+    private static final Set<String> REVALIDATING = ConcurrentHashMap.newKeySet();
+
+    private final Path dir;
+    private final String fileName;
+
+    /**
+     * @param dir      Directory of the store
+     * @param fileName Name the binary has in every version directory
+     */
+    BinaryStore(File dir, String fileName) {
+        this.dir = dir.getAbsoluteFile().toPath();
+        this.fileName = fileName;
+    }
+
+    /**
+     * A version of the binary in the store.
+     */
+    static final class Version {
+        final String digest;
+        final String path;
+        // ETag or Last-Modified of the download, null if unknown
+        final String validator;
+        final long checkedAt;
+
+        Version(String digest, String path, String validator, long checkedAt) {
+            this.digest = digest;
+            this.path = path;
+            this.validator = validator;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    /**
+     * @return the current version, or null if the store has none
+     */
+    Version current() {
+        Path pointer = dir.resolve("current");
+        if (!Files.exists(pointer)) return null;
+        Properties props = new Properties();
+        try {
+            InputStream in = Files.newInputStream(pointer);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        String digest = props.getProperty("digest");
+        if (digest == null) return null;
+        Path binary = dir.resolve(digest).resolve(fileName);
+        if (!Files.isRegularFile(binary)) return null;
+        long checkedAt = Long.parseLong(props.getProperty("checkedAt", "0"));
+        return new Version(digest, binary.toString(), props.getProperty("validator"), checkedAt);
+    }
+
+    /**
+     * Returns the current version, making one current first if the store is
+     * empty: a binary from before the store existed is imported, otherwise
+     * the binary is downloaded.
+     *
+     * @param source URL of the binary
+     * @param legacy Binary at the location used before the store, imported if present
+     * @return the current version
+     * @throws IOException if no version could be provided
+     */
+    Version provide(URL source, File legacy) throws IOException {
+        StoreLock lock = lock();
+        try {
+            Version current = current();
+            if (current != null) return current;
+            if (legacy != null && legacy.isFile()) {
+                Path staging = staging();
+                Files.copy(legacy.toPath(), staging, StandardCopyOption.REPLACE_EXISTING);
+                // Validator unknown, the first revalidation downloads the latest binary
+                Version version = add(staging, null);
+                setCurrent(version);
+                return version;
+            }
+            return fetch(source, null);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Returns the version of a binary bundled on the classpath, extracting it
+     * into the store unless an earlier extraction is there. Does not change
+     * the current version and never accesses the network.
+     *
+     * @param resource       Bundled binary
+     * @param expectedDigest SHA-256 digest the binary must have, or null if
+     *                       it is not known, in which case it is extracted
+     *                       to learn its digest
+     * @return version of the bundled binary
+     * @throws IOException if the binary could not be extracted or its digest does not match
+     */
+    Version provideBundled(URL resource, String expectedDigest) throws IOException {
+        Version extracted = version(expectedDigest);
+        if (extracted != null) return extracted;
+
+        StoreLock lock = lock();
+        try {
+            extracted = version(expectedDigest);
+            if (extracted != null) return extracted;
+
+            Path staging = staging();
+            extract(resource, staging);
+            String digest = sha256(staging);
+            if (expectedDigest != null && !expectedDigest.equals(digest)) {
+                Files.delete(staging);
+                throw new IOException("Bundled binary " + resource + " has SHA-256 digest " + digest
+                        + ", expected " + expectedDigest);
+            }
+            return add(staging, digest, null);
+        } finally {
+            lock.close();
+        }
+    }
+
+    private Version version(String digest) {
+        if (digest == null) return null;
+        Path binary = dir.resolve(digest).resolve(fileName);
+        if (!Files.isRegularFile(binary)) return null;
+        return new Version(digest, binary.toString(), null, System.currentTimeMillis());
+    }
+
+    /**
+     * Copies a resource with channel transfers. A resource in a directory is
+     * transferred file to file, which the OS can do without copying it
+     * through the JVM; one in a jar is transferred from its inflating stream.
+     */
+    private static void extract(URL resource, Path target) throws IOException {
+        FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            if ("file".equals(resource.getProtocol())) {
+                FileChannel in = FileChannel.open(Paths.get(resource.toURI()), StandardOpenOption.READ);
+                try {
+                    long size = in.size();
+                    long position = 0;
+                    long transferred;
+                    while (position < size && (transferred = in.transferTo(position, size - position, out)) > 0) {
+                        position += transferred;
+                    }
+                } finally {
+                    in.close();
+                }
+            } else {
+                ReadableByteChannel in = Channels.newChannel(resource.openStream());
+                try {
+                    long position = 0;
+                    long transferred;
+                    while ((transferred = out.transferFrom(in, position, TRANSFER_CHUNK)) > 0) {
+                        position += transferred;
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            out.force(true);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid resource URL " + resource);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Downloads a fresh copy of a version that turned out not to work and
+     * makes it current, unless another thread or process already did.
+     *
+     * @param source URL of the binary
+     * @param broken Version being replaced, null if there is none
+     * @return the current version
+     * @throws IOException if the download failed
+     */
+    Version replace(URL source, Version broken) throws IOException {
+        StoreLock lock = lock();
+        try {
+            Version current = current();
+            if (current != null && (broken == null || !current.digest.equals(broken.digest))) {
+                return current;
+            }
+            return fetch(source, null);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Checks whether the server has a newer binary than the current version
+     * and makes it current if so.
+     *
+     * @param source URL of the binary
+     * @return true if another version became current
+     * @throws IOException if the check or the download failed
+     */
+    boolean revalidate(URL source) throws IOException {
+        Version current = current();
+        if (current == null) return false;
+        String remote = BinaryDownloader.remoteValidator(source, current.validator);
+
+        StoreLock lock = lock();
+        try {
+            Version latest = current();
+            if (latest == null) return false;
+            if (!latest.digest.equals(current.digest)) {
+                // Updated by someone else meanwhile
+                return true;
+            }
+            if (remote == null || remote.equals(latest.validator)) {
+                setCurrent(new Version(latest.digest, latest.path, latest.validator, System.currentTimeMillis()));
+                return false;
+            }
+            return !fetch(source, remote).digest.equals(current.digest);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Revalidates the current version on an I/O thread if it was not checked
+     * within the revalidation interval, see {@link #revalidate(URL)}.
+     *
+     * @param source   URL of the binary
+     * @param onUpdate Run once another version became current
+     */
+    void revalidateInBackground(final URL source, final Runnable onUpdate) {
+        Version current = current();
+        if (current == null || System.currentTimeMillis() - current.checkedAt < REVALIDATE_INTERVAL_MILLIS) return;
+        if (!REVALIDATING.add(dir.toString())) return;
+        LocalThreads.io().execute(new Runnable() {
+            public void run() {
+                try {
+                    if (revalidate(source)) onUpdate.run();
+                } catch (Exception e) {
+                    // Keep serving the current version, the next start tries again
+                } finally {
+                    REVALIDATING.remove(dir.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * Downloads the binary, validates it and makes it current.
+     */
+    private Version fetch(URL source, String validator) throws IOException {
+        if (validator == null) {
+            try {
+                validator = BinaryDownloader.remoteValidator(source, null);
+            } catch (IOException e) {
+                // Not fatal, the download reports real connection problems
+            }
+        }
+
+        Path staging = staging();
+        LocalMetrics.Timer timer = LocalMetrics.start(LocalPhase.BINARY_DOWNLOAD);
+        boolean success = false;
+        try {
+            BinaryDownloader.download(source, staging.toFile());
+            success = true;
+        } finally {
+            timer.stop(success);
+        }
+
+        Version version = add(staging, validator);
+        try {
+            if (!LocalBinary.validateBinary(version.path)) {
+                throw new IOException("Downloaded BrowserStackLocal binary is corrupt");
+            }
+        } catch (LocalException e) {
+            throw new IOException(e.getMessage());
+        }
+        setCurrent(version);
+        prune();
+        return version;
+    }
+
+    /**
+     * Moves a binary into the directory of its digest.
+     */
+    private Version add(Path file, String validator) throws IOException {
+        return add(file, sha256(file), validator);
+    }
+
+    private Version add(Path file, String digest, String validator) throws IOException {
+        Path versionDir = dir.resolve(digest);
+        Path target = versionDir.resolve(fileName);
+        if (Files.isRegularFile(target)) {
+            Files.delete(file);
+        } else {
+            Files.createDirectories(versionDir);
+            move(file, target);
+        }
+        File binary = target.toFile();
+        binary.setExecutable(true, true);
+        binary.setReadable(true, true);
+        // Used to keep the most recent versions when pruning
+        binary.setLastModified(System.currentTimeMillis());
+        return new Version(digest, target.toString(), validator, System.currentTimeMillis());
+    }
+
+    private void setCurrent(Version version) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("digest", version.digest);
+        props.setProperty("checkedAt", String.valueOf(version.checkedAt));
+        if (version.validator != null) {
+            props.setProperty("validator", version.validator);
+        }
+        Path tmp = dir.resolve("current.tmp");
+        OutputStream out = Files.newOutputStream(tmp);
+        try {
+            props.store(out, "Current BrowserStackLocal binary");
+        } finally {
+            out.close();
+        }
+        move(tmp, dir.resolve("current"));
+    }
+
+    /**
+     * Deletes the versions other than the current one and the most recently
+     * added ones. Versions still in use by a running tunnel may fail to be
+     * deleted on some platforms and are left for a later prune.
+     */
+    private void prune() {
+        Version current = current();
+        if (current == null) return;
+        List<Path> versions = new ArrayList<Path>();
+        try {
+            DirectoryStream<Path> entries = Files.newDirectoryStream(dir);
+            try {
+                for (Path entry : entries) {
+                    if (isDigest(entry.getFileName().toString()) && !entry.getFileName().toString().equals(current.digest)) {
+                        versions.add(entry);
+                    }
+                }
+            } finally {
+                entries.close();
+            }
+        } catch (IOException e) {
+            return;
+        }
+
+        Collections.sort(versions, new Comparator<Path>() {
+            public int compare(Path a, Path b) {
+                return Long.compare(lastModified(b), lastModified(a));
+            }
+        });
+        for (int i = KEEP_VERSIONS - 1; i < versions.size(); i++) {
+            try {
+                Files.deleteIfExists(versions.get(i).resolve(fileName));
+                Files.deleteIfExists(versions.get(i));
+            } catch (IOException e) {
+                // In use, retried by the next prune
+            }
+        }
+    }
+
+    private long lastModified(Path version) {
+        return version.resolve(fileName).toFile().lastModified();
+    }
+
+    private Path staging() throws IOException {
+        Path staging = dir.resolve("download");
+        Files.createDirectories(staging);
+        return staging.resolve(fileName);
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file, reading it into a direct buffer
+     * instead of copying it onto the heap. The file is not memory mapped, as
+     * a live mapping keeps Windows from moving or deleting the file until
+     * the mapping is garbage collected.
+     *
+     * @return digest as lower case hex
+     */
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_BYTES);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            channel.close();
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static boolean isDigest(String name) {
+        if (name.length() != 64) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.digit(name.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Locks the store against other threads and processes changing it.
+     */
+    private StoreLock lock() throws IOException {
+        ReentrantLock jvmLock = JVM_LOCKS.get(dir.toString());
+        if (jvmLock == null) {
+            ReentrantLock newLock = new ReentrantLock();
+            jvmLock = JVM_LOCKS.putIfAbsent(dir.toString(), newLock);
+            if (jvmLock == null) jvmLock = newLock;
+        }
+
+        jvmLock.lock();
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(dir);
+            channel = FileChannel.open(dir.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            return new StoreLock(jvmLock, channel, channel.lock());
+        } catch (IOException e) {
+            if (channel != null) channel.close();
+            jvmLock.unlock();
+            throw e;
+        }
+    }
+
+    private static final class StoreLock {
+        private final ReentrantLock jvmLock;
+        private final FileChannel channel;
+        private final FileLock fileLock;
+
+        StoreLock(ReentrantLock jvmLock, FileChannel channel, FileLock fileLock) {
+            this.jvmLock = jvmLock;
+            this.channel = channel;
+            this.fileLock = fileLock;
+        }
+
+        void close() {
+            try {
+                fileLock.release();
+                channel.close();
+            } catch (IOException ignored) {
+            } finally {
+                jvmLock.unlock();
+            }
+        }
+    }
+}
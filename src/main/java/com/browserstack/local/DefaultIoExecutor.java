@@ -0,0 +1,22 @@
+package com.browserstack.local;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor used for blocking process I/O unless one is set with
+ * {@link Local#setIoExecutor}. Java 21 and later use the variant in
+ * src/main/java21, packaged into the multi-release jar.
+ */
+final class DefaultIoExecutor {
+
+    private DefaultIoExecutor() {
+    }
+
+    /**
+     * @return cached pool of daemon platform threads
+     */
+    static ExecutorService create() {
+        return Executors.newCachedThreadPool(LocalThreads.daemonFactory("browserstack-local-io-"));
+    }
+}
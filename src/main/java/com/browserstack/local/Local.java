@@ -1,48 +1,142 @@
 package com.browserstack.local;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Arrays;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import org.json.*;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 /**
  * Creates and manages a secure tunnel connection to BrowserStack.
+ *
+ * An instance may be shared between threads. Its state is kept in a single
+ * atomic reference, so {@link #getState()} and {@link #isRunning()} never
+ * block; a start while another start is in progress waits for that start and
+ * returns its result, and likewise for stops, instead of running the binary
+ * a second time.
  */
 public class Local {
 
-    private static final List<String> IGNORE_KEYS = Arrays.asList("key", "binarypath");
+    // Instances with a running tunnel, for stopAll()
+    private static final Set<Local> LIVE = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean SHUTDOWN_HOOK = new AtomicBoolean(false);
+    // Time an aborted start or stop gets to wind down once its process was destroyed
+    private static final long ABORT_GRACE_SECONDS = 5;
+    private static volatile StartScheduler startScheduler = null;
 
-    List<String> command;
-    Map<String, String> startOptions;
-    String binaryPath;
-    int pid = 0;
+    /**
+     * Immutable state snapshot, replaced atomically on every transition.
+     */
+    private static final class Lifecycle {
+        final LocalState state;
+        // Start or stop in progress, null once it settled
+        final CompletableFuture<TunnelInfo> operation;
+
+        Lifecycle(LocalState state, CompletableFuture<TunnelInfo> operation) {
+            this.state = state;
+            this.operation = operation;
+        }
+    }
 
-    private LocalProcess proc = null;
+    volatile List<String> command;
+    volatile LocalOptions startOptions;
+    volatile String binaryPath;
+    volatile int pid = 0;
 
-    // Current version of binding package, used for --source option of binary
-    private final String packageVersion = "1.1.4";
-    private final Map<String, String> parameters;
-    private final Map<String, String> avoidValueParameters;
+    private final AtomicReference<Lifecycle> lifecycle = new AtomicReference<Lifecycle>(new Lifecycle(LocalState.STOPPED, null));
+    private final List<LocalStateListener> stateListeners = new CopyOnWriteArrayList<LocalStateListener>();
 
-    public Local() {
-        avoidValueParameters = new HashMap<String, String>();
-        avoidValueParameters.put("v", "-vvv");
-        avoidValueParameters.put("force", "-force");
-        avoidValueParameters.put("forcelocal", "-forcelocal");
-        avoidValueParameters.put("onlyAutomate", "-onlyAutomate");
-        avoidValueParameters.put("forceproxy", "-forceproxy");
+    private volatile LocalProcess proc = null;
+    // "-d stop" invocation in progress, destroyed if it does not finish in time
+    private volatile LocalProcess stopProc = null;
+    // Options hash of the host-wide shared tunnel this instance is attached to
+    private volatile String sharedTunnel = null;
+    private volatile TunnelSupervisor supervisor = null;
+    private volatile CompletableFuture<Local> exit = CompletableFuture.completedFuture(this);
+    private volatile TunnelLog log = null;
+    // Set by abort() to make the start in progress give up instead of spawning
+    private volatile AtomicBoolean startCancelled = new AtomicBoolean(false);
+
+    /**
+     * Locates, downloads if needed and validates the binary in the default
+     * location in the background, e.g. while the test harness boots, so that
+     * a later start() only has to connect. A start() while this is still in
+     * progress waits for it instead of doing the same work again.
+     *
+     * @return future completed once the binary is ready
+     */
+    public static CompletableFuture<Void> prepare() {
+        return prepareBinary("");
+    }
 
-        parameters = new HashMap<String, String>();
-        parameters.put("f", "-f");
-        parameters.put("only", "-only");
-        parameters.put("localIdentifier", "-localIdentifier");
-        parameters.put("proxyHost", "-proxyHost");
-        parameters.put("proxyPort", "-proxyPort");
-        parameters.put("proxyUser", "-proxyUser");
-        parameters.put("proxyPass", "-proxyPass");
+    /**
+     * Prepares the binary the given options start a tunnel with in the
+     * background, see {@link #prepare()}.
+     *
+     * @param options Options for the Local instance; only "binarypath" is used
+     * @return future completed once the binary is ready
+     */
+    public static CompletableFuture<Void> prepare(Map<String, String> options) {
+        String binaryPath = options.get("binarypath");
+        return prepareBinary(binaryPath != null ? binaryPath : "");
+    }
+
+    /**
+     * Prepares the binary the given options start a tunnel with in the
+     * background, see {@link #prepare()}.
+     *
+     * @param options Options for the Local instance
+     * @return future completed once the binary is ready
+     */
+    public static CompletableFuture<Void> prepare(LocalOptions options) {
+        return prepareBinary(options.getBinaryPath() != null ? options.getBinaryPath() : "");
+    }
+
+    private static CompletableFuture<Void> prepareBinary(String path) {
+        return LocalBinary.prepare(path, LocalThreads.io()).thenApply(new Function<String, Void>() {
+            public Void apply(String binaryPath) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Sets the executor the binding runs its blocking work on, such as
+     * reading the binary's output, background starts and stops, and log
+     * capture. Some of these tasks block for as long as a tunnel runs, so the
+     * executor must not cap the number of tasks running at once. By default
+     * a pool of daemon threads is used, or virtual threads on Java 21.
+     *
+     * @param executor Executor to use, null to restore the default
+     */
+    public static void setIoExecutor(Executor executor) {
+        LocalThreads.setIo(executor);
+    }
+
+    /**
+     * Limits how many tunnels of this JVM are spawned and connecting at the
+     * same time, e.g. when a grid scales up and many starts fire at once.
+     * Without a scheduler starts are not limited.
+     *
+     * @param scheduler Scheduler admitting the starts, null to remove it
+     */
+    public static void setStartScheduler(StartScheduler scheduler) {
+        startScheduler = scheduler;
     }
 
     /**
@@ -52,39 +146,222 @@ public class Local {
      * @throws Exception
      */
     public void start(Map<String, String> options) throws Exception {
-        startOptions = options;
-        LocalBinary lb;
-        if (options.get("binarypath") != null) {
-            lb = new LocalBinary(options.get("binarypath"));
-        } else {
-            lb = new LocalBinary("");
-        }
-        binaryPath = lb.getBinaryPath();
+        start(LocalOptions.fromMap(options));
+    }
 
-        makeCommand(options, "start");
+    /**
+     * Starts Local instance with options
+     *
+     * @param options Options for the Local instance
+     * @throws Exception
+     */
+    public void start(LocalOptions options) throws Exception {
+        startTunnel(options);
+    }
+
+    /**
+     * Starts Local instance with options, giving up after a timeout. On
+     * timeout, or if the calling thread is interrupted, the binary and the
+     * processes it spawned are killed and the instance can be started again.
+     *
+     * @param options Options for the Local instance
+     * @param timeout Maximum time to wait for the tunnel to connect
+     * @throws LocalTimeoutException if the tunnel did not connect in time
+     * @throws Exception
+     */
+    public void start(Map<String, String> options, Duration timeout) throws Exception {
+        start(LocalOptions.fromMap(options), timeout);
+    }
+
+    /**
+     * Starts Local instance with options, giving up after a timeout. On
+     * timeout, or if the calling thread is interrupted, the binary and the
+     * processes it spawned are killed and the instance can be started again.
+     *
+     * @param options Options for the Local instance
+     * @param timeout Maximum time to wait for the tunnel to connect
+     * @throws LocalTimeoutException if the tunnel did not connect in time
+     * @throws Exception
+     */
+    public void start(LocalOptions options, Duration timeout) throws Exception {
+        await(startAsync(options, LocalThreads.io()), timeout, "start");
+    }
 
-        if (options.get("onlyCommand") != null) return;
+    /**
+     * Starts Local instance with options without blocking the caller.
+     *
+     * @param options Options for the Local instance
+     * @param executor Executor that runs the binary and completes the returned future
+     * @return future completed with the status reported by the binary, or with
+     * null if no tunnel was spawned (already started, or "onlyCommand" was set)
+     */
+    public CompletableFuture<TunnelInfo> startAsync(Map<String, String> options, Executor executor) {
+        return startAsync(LocalOptions.fromMap(options), executor);
+    }
 
-        if (proc == null) {
-            proc = runCommand(command);
-            BufferedReader stdoutbr = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-            BufferedReader stderrbr = new BufferedReader(new InputStreamReader(proc.getErrorStream()));
-            String stdout="", stderr="", line;
-            while ((line = stdoutbr.readLine()) != null) {
-                stdout += line;
+    /**
+     * Starts Local instance with options without blocking the caller.
+     *
+     * @param options Options for the Local instance
+     * @param executor Executor that runs the binary and completes the returned future
+     * @return future completed with the status reported by the binary, or with
+     * null if no tunnel was spawned (already started, or "onlyCommand" was set)
+     */
+    public CompletableFuture<TunnelInfo> startAsync(final LocalOptions options, Executor executor) {
+        return async(new Callable<TunnelInfo>() {
+            public TunnelInfo call() throws Exception {
+                return startTunnel(options);
             }
-            while ((line = stderrbr.readLine()) != null) {
-                stderr += line;
+        }, executor);
+    }
+
+    private TunnelInfo startTunnel(LocalOptions options) throws Exception {
+        if (options.isOnlyCommand()) {
+            startOptions = options;
+            binaryPath = resolveBinary(options);
+            command = options.startCommand(binaryPath);
+            return null;
+        }
+        if (options.getKey() == null || options.getKey().isEmpty()) {
+            throw new LocalException("The \"key\" option is required");
+        }
+
+        Lifecycle starting = new Lifecycle(LocalState.STARTING, new CompletableFuture<TunnelInfo>());
+        while (true) {
+            Lifecycle current = lifecycle.get();
+            if (current.state == LocalState.CONNECTED) return null;
+            if (current.state == LocalState.STARTING) return join(current.operation);
+            if (current.state == LocalState.STOPPING) {
+                settle(current.operation);
+            } else if (transition(current, starting)) {
+                break;
+            }
+        }
+
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        startCancelled = cancelled;
+        LocalMetrics.Timer timer = LocalMetrics.start(LocalPhase.START);
+        boolean success = false;
+        try {
+            TunnelInfo info = doStartTunnel(options, cancelled);
+            success = true;
+            finish(starting, LocalState.CONNECTED);
+            // The tunnel may have exited before it was marked connected
+            if (exit.isDone()) markExited();
+            starting.operation.complete(info);
+            return info;
+        } catch (Throwable t) {
+            finish(starting, LocalState.FAILED);
+            starting.operation.completeExceptionally(t);
+            throw t;
+        } finally {
+            timer.stop(success);
+        }
+    }
+
+    private TunnelInfo doStartTunnel(LocalOptions options, AtomicBoolean cancelled) throws Exception {
+        TunnelSupervisor supervisor = this.supervisor;
+        if (supervisor != null) supervisor.resume();
+
+        startOptions = options;
+        binaryPath = resolveBinary(options);
+        checkCancelled(cancelled);
+
+        command = options.startCommand(binaryPath);
+
+        if (options.getPreflightTimeoutMillis() >= 0) {
+            ReachabilityProbe.await(options, options.getPreflightTimeoutMillis(), TimeUnit.MILLISECONDS);
+            checkCancelled(cancelled);
+        }
+
+        followLog(options);
+        boolean started = false;
+        try {
+            TunnelInfo info = options.isShareTunnel() ? startSharedTunnel(options, cancelled) : spawnTunnel(cancelled);
+            started = true;
+            return info;
+        } finally {
+            // Keep what the failed tunnel logged for getRecentLogEvents()
+            if (!started) unfollowLog();
+        }
+    }
+
+    private TunnelInfo spawnTunnel(AtomicBoolean cancelled) throws Exception {
+        StartScheduler scheduler = startScheduler;
+        long admitted = scheduler != null ? scheduler.acquire() : 0;
+        if (cancelled.get()) {
+            // Timed out while queued, the permit goes to the next start
+            if (scheduler != null) scheduler.cancel();
+            checkCancelled(cancelled);
+        }
+        TunnelInfo info = null;
+        try {
+            LocalMetrics.Timer spawnTimer = LocalMetrics.start(LocalPhase.PROCESS_SPAWN);
+            boolean spawned = false;
+            try {
+                proc = runCommand(command);
+                spawned = true;
+            } finally {
+                spawnTimer.stop(spawned);
             }
-            int r = proc.waitFor();
 
-            JSONObject obj = new JSONObject(!stdout.equals("") ? stdout : stderr);
-            if(!obj.getString("state").equals("connected")){
-                throw new LocalException(obj.getJSONObject("message").getString("message"));
+            LocalMetrics.Timer connectTimer = LocalMetrics.start(LocalPhase.CONNECT);
+            try {
+                ProcessOutput output = ProcessOutput.collect(proc);
+                info = TunnelStatusParser.parse(output.getResponse());
+            } finally {
+                connectTimer.stop(info != null && info.isConnected());
+                // Let a later start() on this instance try again
+                if (info == null || !info.isConnected()) proc = null;
             }
-            else {
-                pid = obj.getInt("pid");
+        } finally {
+            if (scheduler != null) scheduler.release(admitted, info != null && info.isConnected());
+        }
+
+        if (!info.isConnected()) {
+            throw new LocalException(info.getMessage());
+        }
+        if (cancelled.get()) {
+            // Connected after the caller gave up, nobody would stop this tunnel
+            proc = null;
+            killProcess(info.getPid());
+            checkCancelled(cancelled);
+        }
+        pid = info.getPid();
+        watchExit(pid);
+        return info;
+    }
+
+    private static void checkCancelled(AtomicBoolean cancelled) throws LocalTimeoutException {
+        if (cancelled.get()) {
+            throw new LocalTimeoutException("Start of BrowserStackLocal was cancelled");
+        }
+    }
+
+    /**
+     * Attaches to a tunnel another JVM on this host started with the same
+     * options, or starts one and records it for others to attach to. The
+     * registry stays locked while spawning, so JVMs starting at the same time
+     * wait and attach instead of failing with a conflicting binary.
+     */
+    private TunnelInfo startSharedTunnel(LocalOptions options, AtomicBoolean cancelled) throws Exception {
+        String hash = TunnelRegistry.optionsHash(options.asMap());
+        TunnelRegistry.Session registry = TunnelRegistry.forHost().open();
+        try {
+            TunnelRegistry.Entry running = registry.attach(hash);
+            if (running != null) {
+                sharedTunnel = hash;
+                pid = running.pid;
+                watchExit(pid);
+                return new TunnelInfo("connected", pid, "Attached to running tunnel");
             }
+
+            TunnelInfo info = spawnTunnel(cancelled);
+            registry.register(hash, info.getPid(), options.getLocalIdentifier());
+            sharedTunnel = hash;
+            return info;
+        } finally {
+            registry.close();
         }
     }
 
@@ -94,11 +371,121 @@ public class Local {
      * @throws InterruptedException
      */
     public void stop() throws Exception {
+        stopTunnel();
+    }
+
+    /**
+     * Stops the Local instance, giving up after a timeout. On timeout, or if
+     * the calling thread is interrupted, the tunnel is killed instead.
+     *
+     * @param timeout Maximum time to wait for the binary to stop the tunnel
+     * @throws LocalTimeoutException if the tunnel did not stop in time
+     * @throws Exception
+     */
+    public void stop(Duration timeout) throws Exception {
+        await(stopAsync(LocalThreads.io()), timeout, "stop");
+    }
+
+    /**
+     * Stops the Local instance without blocking the caller.
+     *
+     * @param executor Executor that runs the binary and completes the returned future
+     * @return future completed with the status reported by the binary
+     */
+    public CompletableFuture<TunnelInfo> stopAsync(Executor executor) {
+        return async(new Callable<TunnelInfo>() {
+            public TunnelInfo call() throws Exception {
+                return stopTunnel();
+            }
+        }, executor);
+    }
+
+    private TunnelInfo stopTunnel() throws Exception {
+        // Ends a restart loop before waiting for a restart in progress
+        TunnelSupervisor supervisor = this.supervisor;
+        if (supervisor != null) supervisor.stop();
+
+        Lifecycle stopping = new Lifecycle(LocalState.STOPPING, new CompletableFuture<TunnelInfo>());
+        while (true) {
+            Lifecycle current = lifecycle.get();
+            if (current.state == LocalState.STOPPED) return new TunnelInfo("disconnected", 0, null);
+            if (current.state == LocalState.STOPPING) return join(current.operation);
+            if (current.state == LocalState.STARTING) {
+                settle(current.operation);
+            } else if (transition(current, stopping)) {
+                break;
+            }
+        }
+        return runStop(stopping, new Callable<TunnelInfo>() {
+            public TunnelInfo call() throws Exception {
+                return doStopTunnel();
+            }
+        });
+    }
+
+    /**
+     * Runs a stop the caller moved this instance to STOPPING for, and settles
+     * the instance as STOPPED or FAILED.
+     */
+    private TunnelInfo runStop(Lifecycle stopping, Callable<TunnelInfo> stop) throws Exception {
+        LocalMetrics.Timer timer = LocalMetrics.start(LocalPhase.STOP);
+        boolean success = false;
+        try {
+            TunnelInfo info = stop.call();
+            success = true;
+            finish(stopping, LocalState.STOPPED);
+            stopping.operation.complete(info);
+            return info;
+        } catch (Throwable t) {
+            finish(stopping, LocalState.FAILED);
+            stopping.operation.completeExceptionally(t);
+            throw t;
+        } finally {
+            timer.stop(success);
+        }
+    }
+
+    private TunnelInfo doStopTunnel() throws Exception {
+        if (pid != 0 && sharedTunnel != null) {
+            return stopSharedTunnel();
+        }
         if (pid != 0) {
-            makeCommand(startOptions, "stop");
-            proc = runCommand(command);
-            proc.waitFor();
+            command = startOptions.stopCommand(binaryPath);
+            TunnelInfo info = runStopCommand();
             pid = 0;
+            proc = null;
+            LIVE.remove(this);
+            unfollowLog();
+            exit.complete(this);
+            return info;
+        }
+        return new TunnelInfo("disconnected", 0, null);
+    }
+
+    /**
+     * Detaches from a shared tunnel, stopping it if no other instance on this
+     * host is attached any more.
+     */
+    private TunnelInfo stopSharedTunnel() throws Exception {
+        TunnelRegistry.Session registry = TunnelRegistry.forHost().open();
+        try {
+            TunnelInfo info;
+            if (registry.detach(sharedTunnel)) {
+                command = startOptions.stopCommand(binaryPath);
+                info = runStopCommand();
+            } else {
+                // Other instances keep using the tunnel, it stays up
+                info = new TunnelInfo("disconnected", 0, "Detached from shared tunnel");
+            }
+            pid = 0;
+            proc = null;
+            LIVE.remove(this);
+            unfollowLog();
+            exit.complete(this);
+            sharedTunnel = null;
+            return info;
+        } finally {
+            registry.close();
         }
     }
 
@@ -107,17 +494,198 @@ public class Local {
     * @param options Options supplied for the Local instance
     **/
     public void stop(Map<String, String> options) throws Exception {
-        LocalBinary lb;
-        if (options.get("binarypath") != null) {
-            lb = new LocalBinary(options.get("binarypath"));
-        } else {
-            lb = new LocalBinary("");
-        }
-        binaryPath = lb.getBinaryPath();
-        makeCommand(options, "stop");
-        proc = runCommand(command);
-        proc.waitFor();
+        stop(LocalOptions.fromMap(options));
+    }
+
+    /**
+    * Stops the Local instance specified by the given identifier
+    * @param options Options supplied for the Local instance
+    **/
+    public void stop(final LocalOptions options) throws Exception {
+        // Unlike stop(), runs the binary even if this instance started nothing
+        Lifecycle stopping = new Lifecycle(LocalState.STOPPING, new CompletableFuture<TunnelInfo>());
+        while (true) {
+            Lifecycle current = lifecycle.get();
+            if (current.operation != null) {
+                settle(current.operation);
+            } else if (transition(current, stopping)) {
+                break;
+            }
+        }
+        runStop(stopping, new Callable<TunnelInfo>() {
+            public TunnelInfo call() throws Exception {
+                binaryPath = resolveBinary(options);
+                command = options.stopCommand(binaryPath);
+                TunnelInfo info = runStopCommand();
+                pid = 0;
+                LIVE.remove(Local.this);
+                unfollowLog();
+                exit.complete(Local.this);
+                return info;
+            }
+        });
+    }
+
+    private TunnelInfo runStopCommand() throws Exception {
+        LocalProcess stopProcess = runCommand(command);
+        ProcessOutput output;
+        stopProc = stopProcess;
+        try {
+            output = ProcessOutput.collect(stopProcess);
+        } finally {
+            stopProc = null;
+        }
+        try {
+            return TunnelStatusParser.parse(output.getResponse());
+        } catch (LocalException e) {
+            // The tunnel is gone either way, the response is informational only
+            return new TunnelInfo("", 0, output.getResponse().trim());
+        }
+    }
+
+    /**
+     * Stops the tunnels of all Local instances in this JVM concurrently.
+     * Tunnels whose stop did not finish within the timeout, or failed, are
+     * killed instead; tunnels shared with other JVMs are only detached from.
+     *
+     * @param timeout Maximum time to wait for the tunnels to stop
+     */
+    public static void stopAll(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        Map<Local, CompletableFuture<TunnelInfo>> stopping = new LinkedHashMap<Local, CompletableFuture<TunnelInfo>>();
+        for (Local local : LIVE) {
+            stopping.put(local, local.stopAsync(LocalThreads.io()));
+        }
+
+        boolean interrupted = false;
+        for (Map.Entry<Local, CompletableFuture<TunnelInfo>> entry : stopping.entrySet()) {
+            CompletableFuture<TunnelInfo> stop = entry.getValue();
+            try {
+                long remaining = deadline - System.nanoTime();
+                if (!interrupted && remaining > 0) {
+                    stop.get(remaining, TimeUnit.NANOSECONDS);
+                }
+                if (stop.isDone() && !stop.isCompletedExceptionally()) continue;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                // Killed below
+            } catch (TimeoutException e) {
+                // Killed below
+            }
+            entry.getKey().kill();
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Calls {@link #stopAll(Duration)} when the JVM shuts down. Calling this
+     * more than once has no further effect.
+     *
+     * @param timeout Maximum time the shutdown waits for the tunnels to stop
+     */
+    public static void stopAllOnShutdown(final Duration timeout) {
+        if (!SHUTDOWN_HOOK.compareAndSet(false, true)) return;
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                stopAll(timeout);
+            }
+        }, "browserstack-local-shutdown"));
+    }
+
+    /**
+     * Kills the tunnel without going through the binary, after stopping it
+     * normally did not work. Does not synchronize with a stop in progress,
+     * which is unblocked by destroying its "-d stop" process.
+     */
+    void kill() {
+        TunnelSupervisor supervisor = this.supervisor;
+        if (supervisor != null) supervisor.stop();
+        // Read first, the stop in progress clears them once its process is destroyed
+        int tunnelPid = pid;
+        boolean shared = sharedTunnel != null;
+        LocalProcess stopProcess = stopProc;
+        if (stopProcess != null) stopProcess.destroy();
+        if (tunnelPid != 0 && !shared) killProcess(tunnelPid);
+        LIVE.remove(this);
+        unfollowLog();
+        // Takes over from a start or stop in progress, which no longer settles the state
+        while (true) {
+            Lifecycle current = lifecycle.get();
+            if (current.state == LocalState.STOPPED && current.operation == null) break;
+            if (transition(current, new Lifecycle(LocalState.STOPPED, null))) break;
+        }
+    }
+
+    private String resolveBinary(LocalOptions options) throws LocalException {
+        if (options.getBinaryPath() != null) {
+            return LocalBinary.resolve(options.getBinaryPath());
+        }
+        return LocalBinary.resolve("");
+    }
+
+    private void await(CompletableFuture<TunnelInfo> operation, Duration timeout, String name) throws Exception {
+        try {
+            operation.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        } catch (TimeoutException e) {
+            abort(operation, timeout);
+            throw new LocalTimeoutException("BrowserStackLocal did not " + name + " within " + timeout.toMillis() + "ms");
+        } catch (InterruptedException e) {
+            abort(operation, timeout);
+            Thread.currentThread().interrupt();
+            throw new LocalTimeoutException("Interrupted while waiting for BrowserStackLocal to " + name);
+        }
+    }
+
+    /**
+     * Cancels a start or stop that did not finish in time: a start that did
+     * not spawn its process yet gives up before spawning, processes already
+     * running are destroyed and briefly waited for, and a tunnel that
+     * connected in the meantime is killed.
+     *
+     * @param timeout Timeout the caller waited for, which also bounds the wait
+     *                for destroyed processes
+     */
+    private void abort(CompletableFuture<TunnelInfo> operation, Duration timeout) {
+        startCancelled.set(true);
+        LocalProcess process = proc;
+        if (process != null) process.destroy();
+        LocalProcess stopProcess = stopProc;
+        if (stopProcess != null) stopProcess.destroy();
+        if (process != null || stopProcess != null) {
+            try {
+                operation.get(Math.min(TimeUnit.SECONDS.toNanos(ABORT_GRACE_SECONDS), timeout.toNanos()),
+                        TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                // Expected, its process is gone
+            }
+        }
+        kill();
         pid = 0;
+        proc = null;
+    }
+
+    private static <T> CompletableFuture<T> async(final Callable<T> task, Executor executor) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        future.complete(task.call());
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
     }
 
     /**
@@ -126,78 +694,251 @@ public class Local {
      * @return true if Local instance is running, else false
      */
     public boolean isRunning() throws Exception {
-        if (pid == 0) return false;
-        return isProcessRunning(pid);
+        return getState() == LocalState.CONNECTED;
+    }
+
+    /**
+     * @return current lifecycle state, read without blocking
+     */
+    public LocalState getState() {
+        return lifecycle.get().state;
     }
 
     /**
-     * Creates a list of command-line arguments for the Local instance
+     * Registers a listener for the state transitions of this instance.
      *
-     * @param options Options supplied for the Local instance
+     * @param listener Listener to add
      */
-    private void makeCommand(Map<String, String> options, String opCode) {
-        command = new ArrayList<String>();
-        command.add(binaryPath);
-        command.add("-d");
-        command.add(opCode);
-        command.add("--key");
-        command.add(options.get("key"));
-        command.add("--source");
-        command.add("java-" + packageVersion);
+    public void addStateListener(LocalStateListener listener) {
+        stateListeners.add(listener);
+    }
 
-        for (Map.Entry<String, String> opt : options.entrySet()) {
-            String parameter = opt.getKey().trim();
-            if (IGNORE_KEYS.contains(parameter)) {
-                continue;
-            }
-            if (avoidValueParameters.get(parameter) != null && opt.getValue().trim().toLowerCase() != "false") {
-                command.add(avoidValueParameters.get(parameter));
-            } else {
-                if (parameters.get(parameter) != null) {
-                    command.add(parameters.get(parameter));
-                } else {
-                    command.add("-" + parameter);
-                }
-                if (opt.getValue() != null) {
-                    command.add(opt.getValue().trim());
+    /**
+     * @param listener Listener added before
+     */
+    public void removeStateListener(LocalStateListener listener) {
+        stateListeners.remove(listener);
+    }
+
+    /**
+     * Replaces the lifecycle if it is still the expected one and reports the
+     * state change.
+     *
+     * @param from Lifecycle the caller read
+     * @param to   Lifecycle to install
+     * @return false if another thread changed the lifecycle first
+     */
+    private boolean transition(Lifecycle from, Lifecycle to) {
+        if (!lifecycle.compareAndSet(from, to)) return false;
+        if (from.state != to.state) {
+            for (LocalStateListener listener : stateListeners) {
+                try {
+                    listener.onStateChange(this, from.state, to.state);
+                } catch (RuntimeException e) {
+                    // A failing listener must not break the lifecycle
                 }
             }
         }
+        return true;
     }
 
     /**
-     * Checks if process with pid is running
-     *
-     * @param pid pid for the process to be checked.
-     * @link http://stackoverflow.com/a/26423642/941691
+     * Settles the state once an operation finished, unless kill() took over.
      */
-    private boolean isProcessRunning(int pid) throws Exception {
-        ArrayList<String> cmd = new ArrayList<String>();
-        if (System.getProperty("os.name").toLowerCase().contains("windows")) {
-            //tasklist exit code is always 0. Parse output
-            //findstr exit code 0 if found pid, 1 if it doesn't
-            cmd.add("cmd");
-            cmd.add("/c");
-            cmd.add("\"tasklist /FI \"PID eq " + pid + "\" | findstr " + pid + "\"");
+    private void finish(Lifecycle operation, LocalState state) {
+        Lifecycle current = lifecycle.get();
+        if (current == operation) {
+            transition(current, new Lifecycle(state, null));
         }
-        else {
-            //ps exit code 0 if process exists, 1 if it doesn't
-            cmd.add("/bin/sh");
-            cmd.add("-c");
-            cmd.add("ps");
-            cmd.add("-o");
-            cmd.add("pid=");
-            cmd.add("|");
-            cmd.add("grep");
-            cmd.add("-w");
-            cmd.add(String.valueOf(pid));
+    }
+
+    /**
+     * Marks a connected tunnel that exited on its own as failed.
+     */
+    private void markExited() {
+        Lifecycle current = lifecycle.get();
+        if (current.state == LocalState.CONNECTED) {
+            transition(current, new Lifecycle(LocalState.FAILED, null));
         }
+    }
 
-        proc = runCommand(cmd);
-        int exitValue = proc.waitFor();
+    private static TunnelInfo join(CompletableFuture<TunnelInfo> operation) throws Exception {
+        try {
+            return operation.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+    }
 
-        // 0 is the default exit code which means the process exists
-        return exitValue == 0;
+    /**
+     * Waits for an operation of another thread, whatever its outcome.
+     */
+    private static void settle(CompletableFuture<TunnelInfo> operation) throws InterruptedException {
+        try {
+            operation.get();
+        } catch (ExecutionException e) {
+            // Reported to the thread that ran it
+        }
+    }
+
+    /**
+     * Returns a future that completes when the tunnel process exits, whether it
+     * was stopped or died on its own. If no tunnel is running the returned
+     * future is already complete.
+     *
+     * @return future completed with this instance once the tunnel is gone
+     */
+    public CompletableFuture<Local> onExit() {
+        return exit;
+    }
+
+    private void watchExit(int tunnelPid) {
+        final CompletableFuture<Local> tunnelExit = new CompletableFuture<Local>();
+        exit = tunnelExit;
+        LIVE.add(this);
+        watchProcessExit(tunnelPid).thenRun(new Runnable() {
+            public void run() {
+                TunnelSupervisor supervisor = Local.this.supervisor;
+                // A supervised tunnel is about to be restarted and stays live
+                if (supervisor == null || supervisor.isStopped()) LIVE.remove(Local.this);
+                markExited();
+                tunnelExit.complete(Local.this);
+            }
+        });
+
+        TunnelSupervisor supervisor = this.supervisor;
+        if (supervisor != null) supervisor.watch(tunnelExit);
+    }
+
+    /**
+     * Follows the tunnel's log file, the "logFile" option or local.log in the
+     * working directory, while the tunnel runs. The last lines are kept for
+     * {@link #getRecentLogEvents()}, e.g. to diagnose a failed start, and
+     * every line is passed to the listener as it is written.
+     *
+     * @param capacity Number of recent lines kept
+     * @param listener Listener receiving every line, or null
+     */
+    public synchronized void enableLogCapture(int capacity, TunnelLogListener listener) {
+        if (log != null) log.unfollow();
+        log = new TunnelLog(capacity, listener);
+        if (pid != 0 && startOptions != null) followLog(startOptions);
+    }
+
+    /**
+     * @return the most recent lines of the tunnel's log file, oldest first,
+     * or an empty list if log capture is not enabled
+     */
+    public List<TunnelLogEvent> getRecentLogEvents() {
+        TunnelLog log = this.log;
+        return log == null ? Collections.<TunnelLogEvent>emptyList() : log.recent();
+    }
+
+    private void followLog(LocalOptions options) {
+        TunnelLog log = this.log;
+        if (log == null) return;
+        String logFile = options.getLogFile();
+        log.follow(Paths.get(logFile != null ? logFile : "local.log"));
+    }
+
+    private void unfollowLog() {
+        TunnelLog log = this.log;
+        if (log != null) log.unfollow();
+    }
+
+    /**
+     * Restarts the tunnel with its original options whenever it exits without
+     * {@link #stop()} having been called, waiting 1 second before the first
+     * retry and at most 1 minute between retries.
+     */
+    public void enableSupervisor() {
+        enableSupervisor(1, 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Restarts the tunnel with its original options whenever it exits without
+     * {@link #stop()} having been called. Failed restarts are retried with
+     * exponential backoff and jitter.
+     *
+     * @param initialBackoff Delay before retrying a failed restart the first time
+     * @param maxBackoff Maximum delay between retries
+     * @param unit Unit of initialBackoff and maxBackoff
+     */
+    public synchronized void enableSupervisor(long initialBackoff, long maxBackoff, TimeUnit unit) {
+        if (supervisor != null) return;
+        supervisor = new TunnelSupervisor(this, Math.max(1, unit.toMillis(initialBackoff)), unit.toMillis(maxBackoff));
+        if (pid != 0) supervisor.watch(exit);
+    }
+
+    /**
+     * @return number of times the supervisor restarted the tunnel
+     */
+    public int getReconnectCount() {
+        TunnelSupervisor supervisor = this.supervisor;
+        return supervisor == null ? 0 : supervisor.getReconnectCount();
+    }
+
+    /**
+     * @return total time the supervised tunnel has been down, including a
+     * current outage
+     */
+    public long getDowntimeMillis() {
+        TunnelSupervisor supervisor = this.supervisor;
+        return supervisor == null ? 0 : supervisor.getDowntimeMillis();
+    }
+
+    /**
+     * Waits for the tunnel to be connected, e.g. while the supervisor is
+     * reconnecting it, instead of failing a session right away.
+     *
+     * @param timeout Maximum time to wait
+     * @param unit Unit of timeout
+     * @return true if the tunnel is connected
+     * @throws Exception if interrupted while waiting
+     */
+    public boolean awaitAvailable(long timeout, TimeUnit unit) throws Exception {
+        TunnelSupervisor supervisor = this.supervisor;
+        if (supervisor == null) return isRunning();
+        return supervisor.awaitAvailable(timeout, unit);
+    }
+
+    /**
+     * Starts the tunnel again after it died, called by the supervisor.
+     *
+     * @return false if nothing was started, as stop() was called or the
+     * tunnel was started again in the meantime
+     */
+    synchronized boolean restartTunnel() throws Exception {
+        if (supervisor == null || supervisor.isStopped()) return false;
+        LocalState state = getState();
+        if ((state != LocalState.FAILED && state != LocalState.STOPPED) || !exit.isDone()) return false;
+        proc = null;
+        pid = 0;
+        sharedTunnel = null;
+        if (startTunnel(startOptions) == null) {
+            throw new LocalException("BrowserStackLocal could not be restarted");
+        }
+        return true;
+    }
+
+    /**
+     * Watches a tunnel process for its exit.
+     *
+     * @param pid pid of the tunnel process
+     * @return future completed once the process exited
+     */
+    CompletableFuture<Void> watchProcessExit(int pid) {
+        return ProcessSupport.onExit(pid);
+    }
+
+    /**
+     * Forcibly terminates a tunnel process.
+     *
+     * @param pid pid of the tunnel process
+     */
+    void killProcess(int pid) {
+        ProcessSupport.kill(pid);
     }
 
     /**
@@ -223,6 +964,10 @@ public class Local {
             public int waitFor() throws Exception {
                 return process.waitFor();
             }
+
+            public void destroy() {
+                ProcessSupport.destroyTree(process);
+            }
         };
     }
 
@@ -232,5 +977,12 @@ public class Local {
         InputStream getErrorStream();
 
         int waitFor() throws Exception;
+
+        /**
+         * Forcibly terminates the process and the processes it spawned,
+         * called when it did not finish in time. Does nothing by default.
+         */
+        default void destroy() {
+        }
     }
 }
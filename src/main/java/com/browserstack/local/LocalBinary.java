@@ -1,21 +1,59 @@
 package com.browserstack.local;
 
-import org.apache.commons.io.FileUtils;
 import java.io.IOException;
 import java.io.BufferedReader;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.File;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 class LocalBinary {
 
     private static final String BIN_URL = "https://www.browserstack.com/local-testing/downloads/binaries/";
 
+    // System property overriding BIN_URL, e.g. to point at a mirror or an in-house HTTP server
+    static final String BIN_URL_PROPERTY = "browserstack.local.binaryBaseUrl";
+
+    // Classpath location of a bundled binary, e.g. from a platform classified
+    // artifact, followed by the platform's file name. "<name>.sha256" next to
+    // it holds the digest the binary is verified against.
+    static final String BUNDLED_BINARY_PATH = "/com/browserstack/local/bin/";
+
+    private static final long VALIDATE_TIMEOUT_SECONDS = 30;
+
+    // Validated binaries, keyed by the path requested through the "binarypath"
+    // option ("" for the default location)
+    private static final ConcurrentHashMap<String, ResolvedBinary> RESOLVED = new ConcurrentHashMap<String, ResolvedBinary>();
+    private static final ConcurrentHashMap<String, Object> RESOLVE_LOCKS = new ConcurrentHashMap<String, Object>();
+    // Resolutions running in the background, joined by resolve()
+    private static final ConcurrentHashMap<String, CompletableFuture<String>> PREPARING =
+            new ConcurrentHashMap<String, CompletableFuture<String>>();
+
+    private static volatile String platformBinFileName;
+
     private String httpPath;
 
     private String binaryPath;
 
+    // Version from the store in use, null for a binary at a custom path
+    private BinaryStore.Version version;
+
+    private boolean bundled = false;
+
     private boolean isOSWindows;
 
     private final String orderedPaths[] = {
@@ -34,12 +72,126 @@ class LocalBinary {
         checkBinary();
     }
 
+    /**
+     * Returns the path of a working binary for the requested path. The first
+     * call for a path locates, downloads and validates the binary; later calls
+     * reuse that result for as long as the file's size and modification time
+     * stay the same.
+     *
+     * @param path Path requested through the "binarypath" option, "" for the default location
+     * @return path of a validated binary
+     * @throws LocalException if no working binary could be provided
+     */
+    static String resolve(String path) throws LocalException {
+        LocalMetrics.Timer timer = LocalMetrics.start(LocalPhase.BINARY_RESOLVE);
+        boolean success = false;
+        try {
+            String binaryPath = joinPreparation(path);
+            if (binaryPath == null) {
+                binaryPath = resolveCached(path);
+            }
+            success = true;
+            return binaryPath;
+        } finally {
+            timer.stop(success);
+        }
+    }
+
+    /**
+     * Resolves the binary for a path in the background. A {@link #resolve}
+     * for the same path while this is in progress waits for it instead of
+     * doing the same work again.
+     *
+     * @param path     Path requested through the "binarypath" option, "" for the default location
+     * @param executor Executor running the resolution
+     * @return future completed with the path of a validated binary
+     */
+    static CompletableFuture<String> prepare(final String path, Executor executor) {
+        final CompletableFuture<String> future = new CompletableFuture<String>();
+        CompletableFuture<String> running = PREPARING.putIfAbsent(path, future);
+        if (running != null) return running;
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        future.complete(resolveCached(path));
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    } finally {
+                        PREPARING.remove(path, future);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            PREPARING.remove(path, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return the binary resolved by a preparation in progress, or null if
+     * there is none or it failed, in which case the caller resolves it and
+     * reports its own error
+     */
+    private static String joinPreparation(String path) throws LocalException {
+        CompletableFuture<String> preparing = PREPARING.get(path);
+        if (preparing == null) return null;
+        try {
+            return preparing.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LocalException("Interrupted while waiting for the BrowserStackLocal binary");
+        }
+    }
+
+    private static String resolveCached(String path) throws LocalException {
+        ResolvedBinary resolved = RESOLVED.get(path);
+        if (resolved != null && resolved.isUnchanged()) {
+            return resolved.path;
+        }
+
+        Object lock = RESOLVE_LOCKS.get(path);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = RESOLVE_LOCKS.putIfAbsent(path, newLock);
+            if (lock == null) lock = newLock;
+        }
+
+        synchronized (lock) {
+            resolved = RESOLVED.get(path);
+            if (resolved != null && resolved.isUnchanged()) {
+                return resolved.path;
+            }
+            String binaryPath = new LocalBinary(path).getBinaryPath();
+            resolved = ResolvedBinary.of(binaryPath);
+            if (resolved != null) {
+                RESOLVED.put(path, resolved);
+            }
+            return binaryPath;
+        }
+    }
+
     private void initialize() throws LocalException {
         String osname = System.getProperty("os.name").toLowerCase();
         isOSWindows = osname.contains("windows");
+        if (platformBinFileName == null) {
+            platformBinFileName = detectBinFileName(osname);
+        }
+
+        String baseUrl = System.getProperty(BIN_URL_PROPERTY, BIN_URL);
+        if (!baseUrl.endsWith("/")) {
+            baseUrl += "/";
+        }
+        httpPath = baseUrl + platformBinFileName;
+    }
+
+    private static String detectBinFileName(String osname) throws LocalException {
         String binFileName;
 
-        if (isOSWindows) {
+        if (osname.contains("windows")) {
             binFileName = "BrowserStackLocal.exe";
         } else if (osname.contains("mac") || osname.contains("darwin")) {
             binFileName = "BrowserStackLocal-darwin-x64";
@@ -58,53 +210,87 @@ class LocalBinary {
             throw new LocalException("Failed to detect OS type");
         }
 
-        httpPath = BIN_URL + binFileName;
+        return binFileName;
     }
 
-    private boolean isAlpine() {
-        String[] cmd = { "/bin/sh", "-c", "grep -w \"NAME\" /etc/os-release" };
-        boolean flag = false;
-
+    private static boolean isAlpine() {
         try {
-            Process os = Runtime.getRuntime().exec(cmd);
-            BufferedReader stdout = new BufferedReader(new InputStreamReader(os.getInputStream()));
-
-            flag = stdout.readLine().contains("Alpine");
-        } finally {
-            return flag;
+            List<String> lines = Files.readAllLines(Paths.get("/etc/os-release"), StandardCharsets.UTF_8);
+            for (String line : lines) {
+                if (line.startsWith("NAME=")) {
+                    return line.contains("Alpine");
+                }
+            }
+        } catch (IOException e) {
+            // No os-release, not Alpine
         }
+        return false;
     }
 
     private void checkBinary() throws LocalException{
-        boolean binaryWorking = validateBinary();
+        boolean binaryWorking = validateBinary(binaryPath);
+
+        if(!binaryWorking && bundled){
+            // Downloading instead would defeat bundling it for offline use
+            throw new LocalException("Bundled BrowserStackLocal binary is corrupt");
+        }
 
         if(!binaryWorking){
-            File binary_file = new File(binaryPath);
-            if (binary_file.exists()) {
-                binary_file.delete();
+            // Replace it with a fresh copy from the store. Versions are never
+            // overwritten in place, so concurrent readers never see a missing
+            // or half-written binary.
+            try {
+                version = store().replace(new URL(httpPath), version);
+            } catch (IOException e) {
+                throw new LocalException("Error trying to download BrowserStackLocal binary: " + e.getMessage());
             }
-            getBinary();
-            if(!validateBinary()){
+            binaryPath = version.path;
+            if(!validateBinary(binaryPath)){
                 throw new LocalException("BrowserStackLocal binary is corrupt");
             }
         }
     }
 
-    private boolean validateBinary() throws LocalException{
-        Process process;
+    /**
+     * Runs the binary with "--version" to check that it works.
+     *
+     * @param binaryPath Path of the binary
+     * @return true if the binary reported its version
+     * @throws LocalException if the binary could not be run or did not answer in time
+     */
+    static boolean validateBinary(String binaryPath) throws LocalException{
+        LocalMetrics.Timer timer = LocalMetrics.start(LocalPhase.BINARY_VALIDATE);
+        boolean validBinary = false;
+        final Process process;
         try {
 
             process = new ProcessBuilder(binaryPath,"--version").start();
 
-            BufferedReader stdoutbr = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String stdout="",line="";
+            // A binary that hangs must not block the caller forever
+            final AtomicBoolean timedOut = new AtomicBoolean(false);
+            ScheduledFuture<?> watchdog = LocalThreads.scheduler().schedule(new Runnable() {
+                public void run() {
+                    timedOut.set(true);
+                    ProcessSupport.destroyTree(process);
+                }
+            }, VALIDATE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
 
-            while ((line = stdoutbr.readLine()) != null) {
-                stdout += line;
+            String stdout="",line="";
+            try {
+                BufferedReader stdoutbr = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                while ((line = stdoutbr.readLine()) != null) {
+                    stdout += line;
+                }
+                process.waitFor();
+            } finally {
+                watchdog.cancel(false);
+            }
+            if (timedOut.get()) {
+                throw new LocalTimeoutException("BrowserStackLocal binary did not report its version within "
+                        + VALIDATE_TIMEOUT_SECONDS + "s");
             }
-            process.waitFor();
 
-            boolean validBinary = Pattern.matches("BrowserStack Local version \\d+\\.\\d+", stdout);
+            validBinary = Pattern.matches("BrowserStack Local version \\d+\\.\\d+", stdout);
 
             return validBinary;
         }catch(IOException ex){
@@ -113,29 +299,78 @@ class LocalBinary {
         catch(InterruptedException ex){
             throw new LocalException(ex.toString());
         }
+        finally {
+            timer.stop(validBinary);
+        }
     }
 
     private void getBinaryOnPath(String path) throws LocalException {
         binaryPath = path;
 
         if (!new File(binaryPath).exists()) {
-            downloadBinary(binaryPath, true);
+            downloadBinary(binaryPath);
         }
     }
 
     private void getBinary() throws LocalException {
-        String destParentDir = getAvailableDirectory();
-        binaryPath = destParentDir + "/BrowserStackLocal";
+        final BinaryStore store = store();
+        URL bundledBinary = LocalBinary.class.getResource(BUNDLED_BINARY_PATH + platformBinFileName);
+        if (bundledBinary != null) {
+            try {
+                version = store.provideBundled(bundledBinary, bundledDigest());
+            } catch (IOException e) {
+                throw new LocalException("Error trying to extract bundled BrowserStackLocal binary: " + e.getMessage());
+            }
+            bundled = true;
+            binaryPath = version.path;
+            return;
+        }
 
-        if (isOSWindows) {
-            binaryPath += ".exe";
+        try {
+            URL url = new URL(httpPath);
+            version = store.current();
+            if (version == null) {
+                // First use on this host, nothing to serve until it is provided
+                String legacy = getAvailableDirectory() + "/" + storeFileName();
+                version = store.provide(url, new File(legacy));
+            } else {
+                store.revalidateInBackground(url, new Runnable() {
+                    public void run() {
+                        // Pick up the new version on the next start
+                        RESOLVED.remove("");
+                    }
+                });
+            }
+        } catch (IOException e) {
+            throw new LocalException("Error trying to download BrowserStackLocal binary: " + e.getMessage());
         }
+        binaryPath = version.path;
+    }
 
-        if (!new File(binaryPath).exists()) {
-            downloadBinary(destParentDir, false);
+    /**
+     * @return digest from the ".sha256" file of the bundled binary, or null if there is none
+     */
+    private static String bundledDigest() throws IOException {
+        InputStream in = LocalBinary.class.getResourceAsStream(BUNDLED_BINARY_PATH + platformBinFileName + ".sha256");
+        if (in == null) return null;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line = reader.readLine();
+            // sha256sum format, the digest optionally followed by the file name
+            return line == null ? null : line.trim().split("\\s+")[0].toLowerCase();
+        } finally {
+            in.close();
         }
     }
 
+    private BinaryStore store() throws LocalException {
+        return new BinaryStore(new File(getAvailableDirectory(), "binaries"), storeFileName());
+    }
+
+    private String storeFileName() {
+        return isOSWindows ? "BrowserStackLocal.exe" : "BrowserStackLocal";
+    }
+
     private String getAvailableDirectory() throws LocalException {
         int i = 0;
         while (i < orderedPaths.length) {
@@ -159,37 +394,51 @@ class LocalBinary {
         }
     }
 
-    private void downloadBinary(String destParentDir, Boolean custom) throws LocalException {
+    private void downloadBinary(String destination) throws LocalException {
+        LocalMetrics.Timer timer = LocalMetrics.start(LocalPhase.BINARY_DOWNLOAD);
+        boolean success = false;
         try {
-            String source = destParentDir;
-            if (!custom) {
-                if (!new File(destParentDir).exists())
-                    new File(destParentDir).mkdirs();
-
-                source = destParentDir + "/BrowserStackLocal";
-                if (isOSWindows) {
-                    source += ".exe";
-                }
-            }
-            URL url = new URL(httpPath);
-
-            File f = new File(source);
-            FileUtils.copyURLToFile(url, f);
-
-            changePermissions(binaryPath);
+            BinaryDownloader.downloadIfMissing(new URL(httpPath), new File(destination));
+            success = true;
         } catch (Exception e) {
             throw new LocalException("Error trying to download BrowserStackLocal binary: " + e.getMessage());
+        } finally {
+            timer.stop(success);
         }
     }
 
-    private void changePermissions(String path) {
-        File f = new File(path);
-        f.setExecutable(true, true);
-        f.setReadable(true, true);
-        f.setWritable(true, true);
-    }
-
     public String getBinaryPath() {
         return binaryPath;
     }
+
+    private static final class ResolvedBinary {
+        final String path;
+        final long size;
+        final long lastModified;
+
+        private ResolvedBinary(String path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        static ResolvedBinary of(String path) {
+            BasicFileAttributes attrs = attributes(path);
+            if (attrs == null) return null;
+            return new ResolvedBinary(path, attrs.size(), attrs.lastModifiedTime().toMillis());
+        }
+
+        boolean isUnchanged() {
+            BasicFileAttributes attrs = attributes(path);
+            return attrs != null && attrs.size() == size && attrs.lastModifiedTime().toMillis() == lastModified;
+        }
+
+        private static BasicFileAttributes attributes(String path) {
+            try {
+                return Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
 }
@@ -1,6 +1,6 @@
 package com.browserstack.local;
 
-class LocalException extends Exception {
+public class LocalException extends Exception {
 
     LocalException(String message) {
         super(message);
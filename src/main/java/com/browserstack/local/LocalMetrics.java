@@ -0,0 +1,76 @@
+package com.browserstack.local;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Times the phases of the tunnel lifecycle. Durations are reported to the
+ * registered {@link LocalMetricsListener}s and, on Java 21 and later JVMs
+ * with Flight Recorder, recorded as "com.browserstack.local.Phase" events.
+ */
+public final class LocalMetrics {
+
+    private static final CopyOnWriteArrayList<LocalMetricsListener> LISTENERS = new CopyOnWriteArrayList<LocalMetricsListener>();
+
+    private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+    private static final Timer NOOP = new Timer(null, 0, null);
+
+    private LocalMetrics() {
+    }
+
+    public static void addListener(LocalMetricsListener listener) {
+        LISTENERS.addIfAbsent(listener);
+    }
+
+    public static void removeListener(LocalMetricsListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * @param phase Phase that is about to run
+     * @return timer to be stopped once the phase completed
+     */
+    static Timer start(LocalPhase phase) {
+        Object event = JFR_AVAILABLE ? LocalPhaseEvent.begin(phase) : null;
+        if (event == null && LISTENERS.isEmpty()) {
+            return NOOP;
+        }
+        return new Timer(phase, System.nanoTime(), event);
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    static final class Timer {
+        private final LocalPhase phase;
+        private final long startNanos;
+        private final Object event;
+
+        private Timer(LocalPhase phase, long startNanos, Object event) {
+            this.phase = phase;
+            this.startNanos = startNanos;
+            this.event = event;
+        }
+
+        void stop(boolean success) {
+            if (phase == null) return;
+            long duration = System.nanoTime() - startNanos;
+            if (event != null) {
+                LocalPhaseEvent.commit(event, success);
+            }
+            for (LocalMetricsListener listener : LISTENERS) {
+                try {
+                    listener.onPhaseCompleted(phase, duration, success);
+                } catch (RuntimeException ignored) {
+                    // A broken listener must not break the tunnel
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.browserstack.local;
+
+/**
+ * Receives the duration of every phase of the tunnel lifecycle, e.g. to
+ * record them in a metrics library. Register with
+ * {@link LocalMetrics#addListener(LocalMetricsListener)}.
+ *
+ * Listeners are called on the thread that ran the phase and should return
+ * quickly.
+ */
+public interface LocalMetricsListener {
+
+    /**
+     * @param phase Phase that completed
+     * @param durationNanos Duration of the phase in nanoseconds
+     * @param success false if the phase failed
+     */
+    void onPhaseCompleted(LocalPhase phase, long durationNanos, boolean success);
+}
@@ -0,0 +1,364 @@
+package com.browserstack.local;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable options of a Local instance.
+ *
+ * The options are validated once when built, and the arguments passed to
+ * the binary for "-d start" and "-d stop" are computed up front, so that
+ * restarting a tunnel with the same options does not parse them again.
+ *
+ * <pre>
+ * LocalOptions options = LocalOptions.builder()
+ *         .key("&lt;browserstack-accesskey&gt;")
+ *         .localIdentifier("build-42")
+ *         .forceLocal(true)
+ *         .build();
+ * </pre>
+ */
+public final class LocalOptions {
+
+    // Current version of binding package, used for --source option of binary
+    private static final String PACKAGE_VERSION = "1.1.4";
+
+    // Options used by the binding itself and never passed to the binary
+    private static final List<String> BINDING_OPTIONS = Arrays.asList("key", "binarypath", "shareTunnel", "onlyCommand", "preflightTimeout");
+
+    private static final Map<String, String> AVOID_VALUE_PARAMETERS = new HashMap<String, String>();
+    private static final Map<String, String> PARAMETERS = new HashMap<String, String>();
+
+    static {
+        AVOID_VALUE_PARAMETERS.put("v", "-vvv");
+        AVOID_VALUE_PARAMETERS.put("force", "-force");
+        AVOID_VALUE_PARAMETERS.put("forcelocal", "-forcelocal");
+        AVOID_VALUE_PARAMETERS.put("onlyAutomate", "-onlyAutomate");
+        AVOID_VALUE_PARAMETERS.put("forceproxy", "-forceproxy");
+
+        PARAMETERS.put("f", "-f");
+        PARAMETERS.put("only", "-only");
+        PARAMETERS.put("localIdentifier", "-localIdentifier");
+        PARAMETERS.put("proxyHost", "-proxyHost");
+        PARAMETERS.put("proxyPort", "-proxyPort");
+        PARAMETERS.put("proxyUser", "-proxyUser");
+        PARAMETERS.put("proxyPass", "-proxyPass");
+    }
+
+    private final Map<String, String> options;
+    private final List<String> startArguments;
+    private final List<String> stopArguments;
+    private volatile Commands commands;
+
+    private LocalOptions(Map<String, String> options) {
+        this.options = Collections.unmodifiableMap(options);
+        this.startArguments = arguments("start");
+        this.stopArguments = arguments("stop");
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param options Options as accepted by {@link Local#start(Map)}
+     * @return the equivalent LocalOptions
+     */
+    public static LocalOptions fromMap(Map<String, String> options) {
+        Builder builder = new Builder();
+        for (Map.Entry<String, String> opt : options.entrySet()) {
+            builder.option(opt.getKey(), opt.getValue());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return a builder initialized with these options
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.options.putAll(options);
+        return builder;
+    }
+
+    public String getKey() {
+        return options.get("key");
+    }
+
+    public String getBinaryPath() {
+        return options.get("binarypath");
+    }
+
+    public String getLocalIdentifier() {
+        return options.get("localIdentifier");
+    }
+
+    public String getLogFile() {
+        return options.get("logFile");
+    }
+
+    public boolean isShareTunnel() {
+        return "true".equalsIgnoreCase(options.get("shareTunnel"));
+    }
+
+    public boolean isOnlyCommand() {
+        return isSet("onlyCommand");
+    }
+
+    /**
+     * @return milliseconds to wait for the "only" targets before spawning
+     * the binary, or -1 if they are not probed
+     */
+    public long getPreflightTimeoutMillis() {
+        String timeout = options.get("preflightTimeout");
+        return timeout == null ? -1 : Long.parseLong(timeout);
+    }
+
+    /**
+     * @return the options as name-value pairs, in the order they were set
+     */
+    public Map<String, String> asMap() {
+        return options;
+    }
+
+    /**
+     * @param binaryPath Resolved path of the binary
+     * @return command starting the tunnel
+     */
+    List<String> startCommand(String binaryPath) {
+        return commands(binaryPath).start;
+    }
+
+    /**
+     * @param binaryPath Resolved path of the binary
+     * @return command stopping the tunnel
+     */
+    List<String> stopCommand(String binaryPath) {
+        return commands(binaryPath).stop;
+    }
+
+    private Commands commands(String binaryPath) {
+        Commands cached = commands;
+        if (cached == null || !cached.binaryPath.equals(binaryPath)) {
+            cached = new Commands(binaryPath, command(binaryPath, startArguments), command(binaryPath, stopArguments));
+            commands = cached;
+        }
+        return cached;
+    }
+
+    private static List<String> command(String binaryPath, List<String> arguments) {
+        List<String> command = new ArrayList<String>(arguments.size() + 1);
+        command.add(binaryPath);
+        command.addAll(arguments);
+        return Collections.unmodifiableList(command);
+    }
+
+    private List<String> arguments(String opCode) {
+        List<String> arguments = new ArrayList<String>();
+        arguments.add("-d");
+        arguments.add(opCode);
+        arguments.add("--key");
+        arguments.add(getKey());
+        arguments.add("--source");
+        arguments.add("java-" + PACKAGE_VERSION);
+
+        for (Map.Entry<String, String> opt : options.entrySet()) {
+            String parameter = opt.getKey();
+            if (BINDING_OPTIONS.contains(parameter)) {
+                continue;
+            }
+            if (AVOID_VALUE_PARAMETERS.get(parameter) != null) {
+                if (isSet(parameter)) {
+                    arguments.add(AVOID_VALUE_PARAMETERS.get(parameter));
+                }
+            } else {
+                if (PARAMETERS.get(parameter) != null) {
+                    arguments.add(PARAMETERS.get(parameter));
+                } else {
+                    arguments.add("-" + parameter);
+                }
+                if (opt.getValue() != null) {
+                    arguments.add(opt.getValue());
+                }
+            }
+        }
+        return Collections.unmodifiableList(arguments);
+    }
+
+    private boolean isSet(String name) {
+        return options.containsKey(name) && !"false".equalsIgnoreCase(options.get(name));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LocalOptions && options.equals(((LocalOptions) o).options);
+    }
+
+    @Override
+    public int hashCode() {
+        return options.hashCode();
+    }
+
+    private static final class Commands {
+        final String binaryPath;
+        final List<String> start;
+        final List<String> stop;
+
+        Commands(String binaryPath, List<String> start, List<String> stop) {
+            this.binaryPath = binaryPath;
+            this.start = start;
+            this.stop = stop;
+        }
+    }
+
+    /**
+     * Builds {@link LocalOptions}. Options without a dedicated method, and
+     * options of newer binaries, can be set with {@link #option(String, String)}.
+     */
+    public static final class Builder {
+        private final Map<String, String> options = new LinkedHashMap<String, String>();
+
+        private Builder() {
+        }
+
+        /**
+         * @param key BrowserStack access key, required
+         */
+        public Builder key(String key) {
+            return option("key", key);
+        }
+
+        /**
+         * @param binaryPath Path of the binary to use instead of downloading it
+         */
+        public Builder binaryPath(String binaryPath) {
+            return option("binarypath", binaryPath);
+        }
+
+        public Builder localIdentifier(String localIdentifier) {
+            return option("localIdentifier", localIdentifier);
+        }
+
+        /**
+         * @param folder Local folder served through the tunnel
+         */
+        public Builder folder(String folder) {
+            return option("f", folder);
+        }
+
+        /**
+         * @param hosts Comma separated host,port,ssl triplets to tunnel
+         */
+        public Builder only(String hosts) {
+            return option("only", hosts);
+        }
+
+        public Builder verbose(boolean verbose) {
+            return flag("v", verbose);
+        }
+
+        public Builder force(boolean force) {
+            return flag("force", force);
+        }
+
+        public Builder forceLocal(boolean forceLocal) {
+            return flag("forcelocal", forceLocal);
+        }
+
+        public Builder forceProxy(boolean forceProxy) {
+            return flag("forceproxy", forceProxy);
+        }
+
+        public Builder onlyAutomate(boolean onlyAutomate) {
+            return flag("onlyAutomate", onlyAutomate);
+        }
+
+        public Builder proxy(String host, int port) {
+            option("proxyHost", host);
+            return option("proxyPort", String.valueOf(port));
+        }
+
+        public Builder proxyCredentials(String user, String password) {
+            option("proxyUser", user);
+            return option("proxyPass", password);
+        }
+
+        public Builder logFile(String logFile) {
+            return option("logFile", logFile);
+        }
+
+        /**
+         * @param shareTunnel Share the tunnel with other JVMs on this host
+         *                    started with the same options
+         */
+        public Builder shareTunnel(boolean shareTunnel) {
+            return flag("shareTunnel", shareTunnel);
+        }
+
+        /**
+         * Waits, before spawning the binary, until the host and port pairs of
+         * the "only" option accept connections and the folder of the "f"
+         * option exists, and fails the start if they do not in time.
+         *
+         * @param timeout Maximum time to wait
+         * @param unit    Unit of timeout
+         */
+        public Builder preflight(long timeout, TimeUnit unit) {
+            return option("preflightTimeout", String.valueOf(unit.toMillis(timeout)));
+        }
+
+        /**
+         * @param onlyCommand Only build the command, without starting the binary
+         */
+        public Builder onlyCommand(boolean onlyCommand) {
+            return flag("onlyCommand", onlyCommand);
+        }
+
+        /**
+         * Sets an option by the name the binary knows it by, without the
+         * leading "-".
+         *
+         * @param name  Name of the option
+         * @param value Value of the option, null to pass the option without a value
+         */
+        public Builder option(String name, String value) {
+            if (name == null || name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Option name must not be empty");
+            }
+            options.put(name.trim(), value == null ? null : value.trim());
+            return this;
+        }
+
+        /**
+         * Removes an option set before.
+         */
+        public Builder remove(String name) {
+            options.remove(name);
+            return this;
+        }
+
+        /**
+         * Builds the options. The key is only checked once a tunnel is
+         * started, so that commands can be built without one.
+         *
+         * @throws IllegalArgumentException if an option has an invalid value
+         */
+        public LocalOptions build() {
+            String preflightTimeout = options.get("preflightTimeout");
+            if (preflightTimeout != null && !preflightTimeout.matches("\\d+")) {
+                throw new IllegalArgumentException("The \"preflightTimeout\" option must be a number of milliseconds");
+            }
+            return new LocalOptions(new LinkedHashMap<String, String>(options));
+        }
+
+        private Builder flag(String name, boolean value) {
+            return option(name, String.valueOf(value));
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.browserstack.local;
+
+/**
+ * Phases of the tunnel lifecycle reported to {@link LocalMetricsListener}s.
+ */
+public enum LocalPhase {
+    /** Locating a working binary, including download and validation when needed */
+    BINARY_RESOLVE,
+    /** Downloading the binary */
+    BINARY_DOWNLOAD,
+    /** Running the binary with --version to check it works */
+    BINARY_VALIDATE,
+    /** Launching the binary process */
+    PROCESS_SPAWN,
+    /** Waiting for the binary to connect the tunnel */
+    CONNECT,
+    /** A complete {@link Local#start} call */
+    START,
+    /** A complete {@link Local#stop} call */
+    STOP
+}
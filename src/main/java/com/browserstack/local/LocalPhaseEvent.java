@@ -0,0 +1,22 @@
+package com.browserstack.local;
+
+/**
+ * Records phases of the tunnel lifecycle as Flight Recorder events. On
+ * Java 21 and later the multi-release jar provides a variant that does;
+ * this one, compiled against the Java 8 API, records nothing.
+ */
+final class LocalPhaseEvent {
+
+    private LocalPhaseEvent() {
+    }
+
+    /**
+     * @return event to pass to {@link #commit}, or null if none is recorded
+     */
+    static Object begin(LocalPhase phase) {
+        return null;
+    }
+
+    static void commit(Object event, boolean success) {
+    }
+}
@@ -0,0 +1,410 @@
+package com.browserstack.local;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of pre-started Local instances, each connected with its own
+ * localIdentifier, that are leased out to parallel test workers.
+ *
+ * The pool keeps at least {@code minSize} tunnels running, starts new ones on
+ * demand up to {@code maxSize} and stops tunnels that stayed idle for longer
+ * than the idle timeout, down to {@code minSize} again.
+ */
+public class LocalPool implements Closeable {
+
+    private final LocalOptions options;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final String identifierPrefix;
+    private final AtomicInteger identifierCounter = new AtomicInteger();
+
+    private final Deque<PooledLocal> idle = new ArrayDeque<PooledLocal>();
+    private final Set<PooledLocal> leased = new HashSet<PooledLocal>();
+    // Stops of evicted tunnels that close() still has to wait for
+    private final List<CompletableFuture<TunnelInfo>> evicting = new ArrayList<CompletableFuture<TunnelInfo>>();
+    // Tunnels that are idle, leased or still starting
+    private int size = 0;
+    private boolean closed = false;
+    private ScheduledFuture<?> evictor;
+
+    /**
+     * @param options Options used to start every tunnel in the pool. A
+     *                "localIdentifier" option is used as prefix for the
+     *                generated identifiers.
+     * @param minSize Number of tunnels kept running at all times
+     * @param maxSize Maximum number of tunnels running at once
+     */
+    public LocalPool(Map<String, String> options, int minSize, int maxSize) {
+        this(options, minSize, maxSize, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param options     Options used to start every tunnel in the pool. A
+     *                    "localIdentifier" option is used as prefix for the
+     *                    generated identifiers.
+     * @param minSize     Number of tunnels kept running at all times
+     * @param maxSize     Maximum number of tunnels running at once
+     * @param idleTimeout Time after which an idle tunnel above minSize is
+     *                    stopped, 0 to never shrink the pool
+     * @param unit        Unit of idleTimeout
+     */
+    public LocalPool(Map<String, String> options, int minSize, int maxSize, long idleTimeout, TimeUnit unit) {
+        this(LocalOptions.fromMap(options), minSize, maxSize, idleTimeout, unit);
+    }
+
+    /**
+     * @param options Options used to start every tunnel in the pool. A
+     *                localIdentifier is used as prefix for the generated
+     *                identifiers.
+     * @param minSize Number of tunnels kept running at all times
+     * @param maxSize Maximum number of tunnels running at once
+     */
+    public LocalPool(LocalOptions options, int minSize, int maxSize) {
+        this(options, minSize, maxSize, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param options     Options used to start every tunnel in the pool. A
+     *                    localIdentifier is used as prefix for the generated
+     *                    identifiers.
+     * @param minSize     Number of tunnels kept running at all times
+     * @param maxSize     Maximum number of tunnels running at once
+     * @param idleTimeout Time after which an idle tunnel above minSize is
+     *                    stopped, 0 to never shrink the pool
+     * @param unit        Unit of idleTimeout
+     */
+    public LocalPool(LocalOptions options, int minSize, int maxSize, long idleTimeout, TimeUnit unit) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size, expected 0 <= minSize <= maxSize and maxSize >= 1");
+        }
+        this.options = options.toBuilder().remove("localIdentifier").build();
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+
+        String prefix = options.getLocalIdentifier();
+        if (prefix == null) {
+            prefix = "pool-" + UUID.randomUUID().toString().substring(0, 8);
+        }
+        this.identifierPrefix = prefix;
+    }
+
+    /**
+     * Starts minSize tunnels concurrently and blocks until all of them are
+     * connected.
+     *
+     * @throws Exception if any of the tunnels failed to start; the ones that
+     *                   did start stay in the pool
+     */
+    public void start() throws Exception {
+        List<PooledLocal> starting = new ArrayList<PooledLocal>();
+        List<CompletableFuture<TunnelInfo>> futures = new ArrayList<CompletableFuture<TunnelInfo>>();
+        synchronized (this) {
+            ensureOpen();
+            while (size < minSize) {
+                size++;
+                PooledLocal pooled = newPooledLocal();
+                starting.add(pooled);
+                futures.add(pooled.local.startAsync(pooled.options, LocalThreads.io()));
+            }
+            if (idleTimeoutMillis > 0 && evictor == null) {
+                evictor = LocalThreads.scheduler().scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        evictIdle();
+                    }
+                }, idleTimeoutMillis, idleTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        Throwable failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+                returnToPool(starting.get(i));
+            } catch (ExecutionException e) {
+                discard();
+                if (failure == null) failure = e.getCause();
+            }
+        }
+        if (failure instanceof Exception) throw (Exception) failure;
+        if (failure != null) throw new LocalException(failure.toString());
+    }
+
+    /**
+     * Leases a tunnel, waiting for as long as it takes for one to become
+     * available.
+     *
+     * @return lease on a connected tunnel
+     * @throws Exception if a new tunnel had to be started and failed to start
+     */
+    public Lease acquire() throws Exception {
+        return acquire(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Leases a tunnel. An idle tunnel is handed out if there is one, otherwise
+     * a new one is started if the pool is below maxSize, otherwise the call
+     * waits for another worker to release its lease. Idle tunnels that exited
+     * in the meantime are stopped and replaced instead of handed out.
+     *
+     * @param timeout Maximum time to wait for a lease, 0 to wait forever
+     * @param unit    Unit of timeout
+     * @return lease on a connected tunnel
+     * @throws Exception if no tunnel became available in time, or a new tunnel
+     *                   failed to start
+     */
+    public Lease acquire(long timeout, TimeUnit unit) throws Exception {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<PooledLocal> dead = new ArrayList<PooledLocal>();
+        PooledLocal pooled;
+        try {
+            synchronized (this) {
+                while (true) {
+                    ensureOpen();
+                    if (!idle.isEmpty()) {
+                        pooled = idle.pollFirst();
+                        if (!isAlive(pooled)) {
+                            size--;
+                            dead.add(pooled);
+                            continue;
+                        }
+                        leased.add(pooled);
+                        return new Lease(pooled);
+                    }
+                    if (size < maxSize) {
+                        size++;
+                        pooled = newPooledLocal();
+                        leased.add(pooled);
+                        break;
+                    }
+                    if (timeout <= 0) {
+                        wait();
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            throw new LocalException("Timed out waiting for a tunnel from the pool");
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                }
+            }
+        } finally {
+            // Outside the lock, stop() waits for the binary
+            for (PooledLocal gone : dead) {
+                stopQuietly(gone);
+            }
+        }
+
+        try {
+            pooled.local.start(pooled.options);
+        } catch (Exception e) {
+            synchronized (this) {
+                leased.remove(pooled);
+            }
+            discard();
+            throw e;
+        }
+        return new Lease(pooled);
+    }
+
+    /**
+     * Returns a leased tunnel to the pool. Tunnels that are no longer running
+     * are stopped and replaced on demand.
+     *
+     * @param lease Lease obtained from {@link #acquire()}
+     */
+    public void release(Lease lease) {
+        if (!lease.released.compareAndSet(false, true)) return;
+        synchronized (this) {
+            leased.remove(lease.pooled);
+        }
+
+        if (isAlive(lease.pooled)) {
+            returnToPool(lease.pooled);
+        } else {
+            stopQuietly(lease.pooled);
+            discard();
+        }
+    }
+
+    /**
+     * Stops every tunnel in the pool, including leased ones.
+     */
+    public void close() {
+        List<PooledLocal> toStop;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            if (evictor != null) evictor.cancel(false);
+            toStop = new ArrayList<PooledLocal>(idle);
+            toStop.addAll(leased);
+            idle.clear();
+            notifyAll();
+        }
+        stopAll(toStop);
+        List<CompletableFuture<TunnelInfo>> evicted;
+        synchronized (this) {
+            evicted = new ArrayList<CompletableFuture<TunnelInfo>>(evicting);
+            evicting.clear();
+        }
+        awaitAll(evicted);
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized int getLeasedCount() {
+        return leased.size();
+    }
+
+    /**
+     * Creates the Local instance backing a pooled tunnel.
+     *
+     * @return new Local instance
+     */
+    protected Local createLocal() {
+        return new Local();
+    }
+
+    private PooledLocal newPooledLocal() {
+        LocalOptions tunnelOptions = options.toBuilder()
+                .localIdentifier(identifierPrefix + "-" + identifierCounter.incrementAndGet())
+                .build();
+        return new PooledLocal(createLocal(), tunnelOptions);
+    }
+
+    private void returnToPool(PooledLocal pooled) {
+        synchronized (this) {
+            if (!closed) {
+                pooled.lastUsed = System.nanoTime();
+                idle.addFirst(pooled);
+                notifyAll();
+                return;
+            }
+        }
+        stopQuietly(pooled);
+        discard();
+    }
+
+    private synchronized void discard() {
+        size--;
+        notifyAll();
+    }
+
+    private void evictIdle() {
+        synchronized (this) {
+            Iterator<CompletableFuture<TunnelInfo>> stops = evicting.iterator();
+            while (stops.hasNext()) {
+                if (stops.next().isDone()) stops.remove();
+            }
+
+            long now = System.nanoTime();
+            // Least recently used tunnels sit at the tail of the deque
+            Iterator<PooledLocal> it = idle.descendingIterator();
+            while (it.hasNext() && size > minSize) {
+                PooledLocal pooled = it.next();
+                if (now - pooled.lastUsed < TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)) break;
+                it.remove();
+                size--;
+                // Runs on the scheduler thread, so stop in the background;
+                // close() waits for the stop instead
+                evicting.add(pooled.local.stopAsync(LocalThreads.io()));
+            }
+        }
+    }
+
+    private void stopAll(List<PooledLocal> pooledLocals) {
+        List<CompletableFuture<TunnelInfo>> futures = new ArrayList<CompletableFuture<TunnelInfo>>();
+        for (PooledLocal pooled : pooledLocals) {
+            futures.add(pooled.local.stopAsync(LocalThreads.io()));
+        }
+        awaitAll(futures);
+    }
+
+    private static void awaitAll(List<CompletableFuture<TunnelInfo>> futures) {
+        for (CompletableFuture<TunnelInfo> future : futures) {
+            try {
+                future.get();
+            } catch (Exception ignored) {
+                // Best effort, the tunnel may already be gone
+            }
+        }
+    }
+
+    private static boolean isAlive(PooledLocal pooled) {
+        return pooled.local.getState() == LocalState.CONNECTED;
+    }
+
+    private void stopQuietly(PooledLocal pooled) {
+        try {
+            pooled.local.stop();
+        } catch (Exception ignored) {
+            // Best effort, the tunnel may already be gone
+        }
+    }
+
+    private void ensureOpen() throws LocalException {
+        if (closed) throw new LocalException("LocalPool is closed");
+    }
+
+    private static final class PooledLocal {
+        final Local local;
+        final LocalOptions options;
+        long lastUsed;
+
+        PooledLocal(Local local, LocalOptions options) {
+            this.local = local;
+            this.options = options;
+        }
+    }
+
+    /**
+     * A tunnel leased from a {@link LocalPool}. Pass {@link #getLocalIdentifier()}
+     * as the "browserstack.localIdentifier" capability of the sessions that
+     * should use this tunnel, and close the lease once they are done.
+     */
+    public final class Lease implements Closeable {
+        private final PooledLocal pooled;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Lease(PooledLocal pooled) {
+            this.pooled = pooled;
+        }
+
+        public String getLocalIdentifier() {
+            return pooled.options.getLocalIdentifier();
+        }
+
+        public Local getLocal() {
+            return pooled.local;
+        }
+
+        /**
+         * Returns the tunnel to the pool.
+         */
+        public void close() {
+            release(this);
+        }
+    }
+}
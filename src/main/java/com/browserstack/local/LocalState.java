@@ -0,0 +1,14 @@
+package com.browserstack.local;
+
+/**
+ * Lifecycle state of a {@link Local} instance.
+ */
+public enum LocalState {
+    // No tunnel, the initial state
+    STOPPED,
+    STARTING,
+    CONNECTED,
+    STOPPING,
+    // The last start or stop failed, or the tunnel exited on its own
+    FAILED
+}
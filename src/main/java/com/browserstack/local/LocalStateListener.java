@@ -0,0 +1,15 @@
+package com.browserstack.local;
+
+/**
+ * Receives the state transitions of a {@link Local} instance.
+ *
+ * Called on the thread making the transition, right after it happened;
+ * implementations should return quickly and must not start or stop the
+ * instance themselves. Transitions made by different threads at the same
+ * time may be reported out of order, {@link Local#getState()} always has
+ * the current state.
+ */
+public interface LocalStateListener {
+
+    void onStateChange(Local local, LocalState from, LocalState to);
+}
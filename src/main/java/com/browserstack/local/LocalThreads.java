@@ -0,0 +1,58 @@
+package com.browserstack.local;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads used by the binding for blocking process I/O, such as draining the
+ * output pipes of the binary. All of them are daemon threads, or virtual
+ * threads on Java 21, so a forgotten tunnel never keeps the JVM alive.
+ */
+final class LocalThreads {
+
+    private static final ExecutorService DEFAULT_IO = DefaultIoExecutor.create();
+    private static volatile Executor io = DEFAULT_IO;
+
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(daemonFactory("browserstack-local-scheduler-"));
+
+    private LocalThreads() {
+    }
+
+    /**
+     * @return executor for blocking tasks
+     */
+    static Executor io() {
+        return io;
+    }
+
+    /**
+     * @param executor Executor replacing the default one, null to restore it
+     */
+    static void setIo(Executor executor) {
+        io = executor != null ? executor : DEFAULT_IO;
+    }
+
+    /**
+     * @return scheduler for periodic housekeeping; tasks must not block and
+     * should hand blocking work over to {@link #io()}
+     */
+    static ScheduledExecutorService scheduler() {
+        return SCHEDULER;
+    }
+
+    static ThreadFactory daemonFactory(final String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
@@ -0,0 +1,13 @@
+package com.browserstack.local;
+
+/**
+ * Thrown when the binary did not finish in time, or the thread waiting for
+ * it was interrupted. The processes involved have been killed by then, so
+ * the operation can be retried.
+ */
+public class LocalTimeoutException extends LocalException {
+
+    LocalTimeoutException(String message) {
+        super(message);
+    }
+}
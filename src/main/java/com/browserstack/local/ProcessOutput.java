@@ -0,0 +1,96 @@
+package com.browserstack.local;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Output of a finished {@link Local.LocalProcess}.
+ *
+ * Both pipes are drained at the same time, so the binary can never block on a
+ * full stderr pipe while we are still waiting for stdout to reach EOF.
+ */
+final class ProcessOutput {
+
+    // Status responses are a single JSON line; anything beyond this is read
+    // off the pipe and discarded.
+    static final int MAX_BUFFERED_BYTES = 64 * 1024;
+
+    private final String stdout;
+    private final String stderr;
+    private final int exitCode;
+
+    private ProcessOutput(String stdout, String stderr, int exitCode) {
+        this.stdout = stdout;
+        this.stderr = stderr;
+        this.exitCode = exitCode;
+    }
+
+    /**
+     * Reads stdout on the calling thread and stderr on an I/O thread, then
+     * waits for the process to exit.
+     *
+     * @param process process to collect output from
+     * @return collected output
+     * @throws Exception if reading either pipe or waiting for the process fails
+     */
+    static ProcessOutput collect(Local.LocalProcess process) throws Exception {
+        FutureTask<String> stderrTask = new FutureTask<String>(drain(process.getErrorStream()));
+        LocalThreads.io().execute(stderrTask);
+
+        String stdout = drain(process.getInputStream()).call();
+        String stderr;
+        try {
+            stderr = stderrTask.get();
+        } catch (ExecutionException e) {
+            throw new LocalException("Error reading BrowserStackLocal output: " + e.getCause());
+        }
+
+        return new ProcessOutput(stdout, stderr, process.waitFor());
+    }
+
+    private static Callable<String> drain(final InputStream in) {
+        return new Callable<String>() {
+            public String call() throws IOException {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+                byte[] chunk = new byte[4096];
+                int read;
+                try {
+                    while ((read = in.read(chunk)) != -1) {
+                        int room = MAX_BUFFERED_BYTES - buffer.size();
+                        if (room > 0) {
+                            buffer.write(chunk, 0, Math.min(room, read));
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+                return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    String getStdout() {
+        return stdout;
+    }
+
+    String getStderr() {
+        return stderr;
+    }
+
+    int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * @return the binary's JSON response, which is printed on stdout or, on
+     * some failures, on stderr
+     */
+    String getResponse() {
+        return stdout.trim().isEmpty() ? stderr : stdout;
+    }
+}
@@ -0,0 +1,206 @@
+package com.browserstack.local;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Liveness checks for processes identified by pid, such as the daemonized
+ * tunnel whose pid is reported by the binary.
+ *
+ * Uses {@code ProcessHandle} when running on Java 9+ and {@code /proc} on
+ * Linux, so no process has to be forked. Only Java 8 on other platforms falls
+ * back to asking {@code ps} or {@code tasklist}.
+ */
+final class ProcessSupport {
+
+    private static final long EXIT_POLL_INTERVAL_MILLIS = 1000;
+
+    private static final boolean IS_OS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("windows");
+    private static final boolean HAS_PROC_FS = new File("/proc/self").isDirectory();
+
+    // java.lang.ProcessHandle methods, null when running on Java 8
+    private static final Method HANDLE_OF;
+    private static final Method HANDLE_IS_ALIVE;
+    private static final Method HANDLE_ON_EXIT;
+    private static final Method HANDLE_DESTROY_FORCIBLY;
+    // java.lang.Process.descendants(), null when running on Java 8
+    private static final Method PROCESS_DESCENDANTS;
+
+    static {
+        Method of = null, isAlive = null, onExit = null, destroyForcibly = null, descendants = null;
+        try {
+            Class<?> handle = Class.forName("java.lang.ProcessHandle");
+            of = handle.getMethod("of", long.class);
+            isAlive = handle.getMethod("isAlive");
+            onExit = handle.getMethod("onExit");
+            destroyForcibly = handle.getMethod("destroyForcibly");
+            descendants = Process.class.getMethod("descendants");
+        } catch (Exception e) {
+            of = isAlive = onExit = destroyForcibly = descendants = null;
+        }
+        HANDLE_OF = of;
+        HANDLE_IS_ALIVE = isAlive;
+        HANDLE_ON_EXIT = onExit;
+        HANDLE_DESTROY_FORCIBLY = destroyForcibly;
+        PROCESS_DESCENDANTS = descendants;
+    }
+
+    private ProcessSupport() {
+    }
+
+    /**
+     * @return pid of the running JVM
+     */
+    static long currentPid() {
+        // "pid@hostname" on all mainstream JVMs
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        return Long.parseLong(name.substring(0, name.indexOf('@')));
+    }
+
+    /**
+     * @param pid pid of the process to check
+     * @return true if a process with the pid is running
+     */
+    static boolean isAlive(long pid) {
+        if (HANDLE_OF != null) {
+            try {
+                Object handle = processHandle(pid);
+                return handle != null && (Boolean) HANDLE_IS_ALIVE.invoke(handle);
+            } catch (Exception e) {
+                // Fall through to the platform specific checks
+            }
+        }
+        if (HAS_PROC_FS) {
+            return new File("/proc/" + pid).exists();
+        }
+        return isAliveByCommand(pid);
+    }
+
+    /**
+     * @param pid pid of the process to watch
+     * @return future completed once the process is no longer running
+     */
+    static CompletableFuture<Void> onExit(final long pid) {
+        final CompletableFuture<Void> exit = new CompletableFuture<Void>();
+        if (HANDLE_OF != null) {
+            try {
+                Object handle = processHandle(pid);
+                if (handle == null) {
+                    exit.complete(null);
+                } else {
+                    ((CompletableFuture<?>) HANDLE_ON_EXIT.invoke(handle)).whenComplete(new BiConsumer<Object, Throwable>() {
+                        public void accept(Object ignored, Throwable t) {
+                            exit.complete(null);
+                        }
+                    });
+                }
+                return exit;
+            } catch (Exception e) {
+                // Fall back to polling
+            }
+        }
+
+        final ScheduledFuture<?> poll = LocalThreads.scheduler().scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                if (exit.isDone()) return;
+                // The check may fork on platforms without /proc, keep it off the scheduler thread
+                LocalThreads.io().execute(new Runnable() {
+                    public void run() {
+                        if (!isAlive(pid)) exit.complete(null);
+                    }
+                });
+            }
+        }, 0, EXIT_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        exit.whenComplete(new BiConsumer<Void, Throwable>() {
+            public void accept(Void ignored, Throwable t) {
+                poll.cancel(false);
+            }
+        });
+        return exit;
+    }
+
+    /**
+     * Forcibly terminates a process.
+     *
+     * @param pid pid of the process to kill
+     * @return false if the process could not be signalled
+     */
+    static boolean kill(long pid) {
+        if (HANDLE_OF != null) {
+            try {
+                Object handle = processHandle(pid);
+                return handle == null || (Boolean) HANDLE_DESTROY_FORCIBLY.invoke(handle);
+            } catch (Exception e) {
+                // Fall through to the platform specific commands
+            }
+        }
+        ProcessBuilder processBuilder;
+        if (IS_OS_WINDOWS) {
+            processBuilder = new ProcessBuilder("taskkill", "/F", "/PID", String.valueOf(pid));
+        } else {
+            processBuilder = new ProcessBuilder("kill", "-9", String.valueOf(pid));
+        }
+        processBuilder.redirectErrorStream(true);
+        processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(IS_OS_WINDOWS ? "NUL" : "/dev/null")));
+        try {
+            return processBuilder.start().waitFor() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Forcibly terminates a process spawned by the binding together with the
+     * processes it spawned in turn. On Java 8 only the process itself is
+     * terminated.
+     *
+     * @param process process to terminate
+     */
+    static void destroyTree(Process process) {
+        if (PROCESS_DESCENDANTS != null) {
+            try {
+                // Collected before the parent dies and its children are reparented
+                Object[] descendants = ((Stream<?>) PROCESS_DESCENDANTS.invoke(process)).toArray();
+                process.destroyForcibly();
+                for (Object descendant : descendants) {
+                    HANDLE_DESTROY_FORCIBLY.invoke(descendant);
+                }
+                return;
+            } catch (Exception e) {
+                // Fall back to the process itself
+            }
+        }
+        process.destroyForcibly();
+    }
+
+    private static Object processHandle(long pid) throws Exception {
+        Optional<?> handle = (Optional<?>) HANDLE_OF.invoke(null, pid);
+        return handle.isPresent() ? handle.get() : null;
+    }
+
+    private static boolean isAliveByCommand(long pid) {
+        ProcessBuilder processBuilder;
+        if (IS_OS_WINDOWS) {
+            //tasklist exit code is always 0. Parse output
+            //findstr exit code 0 if found pid, 1 if it doesn't
+            processBuilder = new ProcessBuilder("cmd", "/c", "tasklist /FI \"PID eq " + pid + "\" | findstr " + pid);
+        } else {
+            //ps exit code 0 if process exists, 1 if it doesn't
+            processBuilder = new ProcessBuilder("ps", "-p", String.valueOf(pid));
+        }
+        processBuilder.redirectErrorStream(true);
+        processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(IS_OS_WINDOWS ? "NUL" : "/dev/null")));
+        try {
+            return processBuilder.start().waitFor() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.browserstack.local;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks, before a tunnel is spawned, that what it is supposed to expose is
+ * there: the host and port pairs of the "only" option accept connections,
+ * and the folder of the "f" option exists.
+ *
+ * All ports are probed at once with non-blocking connects on one selector.
+ * A refused connect is retried until the deadline, so an application that
+ * is still booting gets the time to come up, while a host that cannot be
+ * resolved or a missing folder fails right away.
+ */
+final class ReachabilityProbe {
+
+    private static final long RETRY_INTERVAL_MILLIS = 100;
+
+    private ReachabilityProbe() {
+    }
+
+    /**
+     * Waits until all targets of the options are reachable.
+     *
+     * @param options Options of the tunnel
+     * @param timeout Maximum time to wait
+     * @param unit    Unit of timeout
+     * @throws LocalException listing the targets that are not reachable
+     */
+    static void await(LocalOptions options, long timeout, TimeUnit unit) throws LocalException {
+        String folder = options.asMap().get("f");
+        if (folder != null && !new File(folder).isDirectory()) {
+            throw new LocalException("Folder " + folder + " of the \"f\" option does not exist");
+        }
+        List<InetSocketAddress> targets = targets(options.asMap().get("only"));
+        if (!targets.isEmpty()) {
+            awaitPorts(targets, System.nanoTime() + unit.toNanos(timeout));
+        }
+    }
+
+    /**
+     * @param only Value of the "only" option, comma separated host,port,ssl triplets
+     * @return the host and port pairs, unresolved
+     */
+    static List<InetSocketAddress> targets(String only) throws LocalException {
+        List<InetSocketAddress> targets = new ArrayList<InetSocketAddress>();
+        if (only == null || only.trim().isEmpty()) return targets;
+        String[] parts = only.split(",");
+        if (parts.length % 3 != 0) {
+            throw new LocalException("Expected host,port,ssl triplets in the \"only\" option: " + only);
+        }
+        for (int i = 0; i < parts.length; i += 3) {
+            String host = parts[i].trim();
+            try {
+                targets.add(InetSocketAddress.createUnresolved(host, Integer.parseInt(parts[i + 1].trim())));
+            } catch (IllegalArgumentException e) {
+                throw new LocalException("Invalid port " + parts[i + 1].trim() + " for " + host + " in the \"only\" option");
+            }
+        }
+        return targets;
+    }
+
+    private static void awaitPorts(List<InetSocketAddress> targets, long deadline) throws LocalException {
+        // Last failure per target still to be reached
+        Map<InetSocketAddress, String> pending = new LinkedHashMap<InetSocketAddress, String>();
+        Map<InetSocketAddress, Long> retryAt = new LinkedHashMap<InetSocketAddress, Long>();
+        for (InetSocketAddress target : targets) {
+            InetSocketAddress resolved = new InetSocketAddress(target.getHostString(), target.getPort());
+            if (resolved.isUnresolved()) {
+                throw new LocalException("Host " + target.getHostString() + " of the \"only\" option cannot be resolved");
+            }
+            pending.put(resolved, "not probed");
+            retryAt.put(resolved, System.nanoTime());
+        }
+
+        Selector selector;
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new LocalException("Could not probe the \"only\" targets: " + e.getMessage());
+        }
+        try {
+            while (!pending.isEmpty()) {
+                long now = System.nanoTime();
+                if (now - deadline >= 0) break;
+
+                long nextRetry = deadline;
+                List<InetSocketAddress> due = new ArrayList<InetSocketAddress>();
+                for (Iterator<Map.Entry<InetSocketAddress, Long>> it = retryAt.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<InetSocketAddress, Long> retry = it.next();
+                    if (retry.getValue() - now > 0) {
+                        if (retry.getValue() - nextRetry < 0) nextRetry = retry.getValue();
+                    } else {
+                        due.add(retry.getKey());
+                        it.remove();
+                    }
+                }
+                for (InetSocketAddress target : due) {
+                    connect(selector, target, pending, retryAt);
+                }
+
+                long waitMillis = TimeUnit.NANOSECONDS.toMillis(nextRetry - System.nanoTime());
+                if (selector.keys().isEmpty() && waitMillis > 0) {
+                    Thread.sleep(waitMillis);
+                } else {
+                    selector.select(Math.max(1, waitMillis));
+                }
+
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    InetSocketAddress target = (InetSocketAddress) key.attachment();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        channel.finishConnect();
+                        pending.remove(target);
+                    } catch (IOException e) {
+                        pending.put(target, String.valueOf(e.getMessage()));
+                        retryAt.put(target, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_INTERVAL_MILLIS));
+                    }
+                    key.cancel();
+                    closeQuietly(channel);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LocalException("Interrupted while probing the \"only\" targets");
+        } catch (IOException e) {
+            throw new LocalException("Could not probe the \"only\" targets: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+
+        if (!pending.isEmpty()) {
+            StringBuilder message = new StringBuilder("Targets of the \"only\" option are not reachable:");
+            for (Map.Entry<InetSocketAddress, String> target : pending.entrySet()) {
+                message.append(' ').append(target.getKey().getHostString()).append(':').append(target.getKey().getPort())
+                        .append(" (").append(target.getValue()).append(')');
+            }
+            throw new LocalException(message.toString());
+        }
+    }
+
+    private static void connect(Selector selector, InetSocketAddress target,
+                                Map<InetSocketAddress, String> pending, Map<InetSocketAddress, Long> retryAt) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            if (channel.connect(target)) {
+                pending.remove(target);
+                closeQuietly(channel);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, target);
+                // Keeps the reason of an earlier refusal, reported if this connect does not finish in time
+                if ("not probed".equals(pending.get(target))) pending.put(target, "no answer");
+            }
+        } catch (IOException e) {
+            pending.put(target, String.valueOf(e.getMessage()));
+            retryAt.put(target, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_INTERVAL_MILLIS));
+            if (channel != null) closeQuietly(channel);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.browserstack.local;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many tunnels are spawned and connecting at the same time.
+ *
+ * The limit adapts to how starts go, increasing additively and decreasing
+ * multiplicatively (AIMD): every start that connected within the latency
+ * target raises the limit by one over the course of a full window of
+ * starts, while a failed or slow start halves it, at most once per latency
+ * target so that a burst of failures from the same overload does not
+ * collapse it to the minimum. Starts beyond the limit wait for their turn.
+ *
+ * <pre>
+ * Local.setStartScheduler(new StartScheduler(4, 32, 30, TimeUnit.SECONDS));
+ * </pre>
+ */
+public final class StartScheduler {
+
+    private static final int MIN_LIMIT = 1;
+    private static final double BACKOFF_RATIO = 0.5;
+
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition available = lock.newCondition();
+    private double limit;
+    private int inFlight = 0;
+    private int queueDepth = 0;
+    private int maxQueueDepth = 0;
+    private long lastDecreaseNanos;
+    private long starts = 0;
+    private long failures = 0;
+    private long totalWaitNanos = 0;
+    private long maxWaitNanos = 0;
+
+    /**
+     * @param initialLimit  Number of concurrent starts allowed at first
+     * @param maxLimit      Upper bound of the limit
+     * @param latencyTarget Time within which a start is expected to connect;
+     *                      slower starts are taken as a sign of overload
+     * @param unit          Unit of latencyTarget
+     */
+    public StartScheduler(int initialLimit, int maxLimit, long latencyTarget, TimeUnit unit) {
+        if (initialLimit < MIN_LIMIT || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Expected 1 <= initialLimit <= maxLimit");
+        }
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = unit.toNanos(latencyTarget);
+        this.lastDecreaseNanos = System.nanoTime() - latencyTargetNanos;
+    }
+
+    /**
+     * Waits until another start may run.
+     *
+     * @return time the start was admitted, to be passed to {@link #release}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    long acquire() throws InterruptedException {
+        long queued = System.nanoTime();
+        lock.lock();
+        try {
+            if (inFlight >= (int) limit) {
+                queueDepth++;
+                maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+                try {
+                    while (inFlight >= (int) limit) {
+                        available.await();
+                    }
+                } finally {
+                    queueDepth--;
+                }
+            }
+            inFlight++;
+            long admitted = System.nanoTime();
+            long waited = admitted - queued;
+            totalWaitNanos += waited;
+            maxWaitNanos = Math.max(maxWaitNanos, waited);
+            starts++;
+            return admitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a start admitted by {@link #acquire()} and adapts the limit to
+     * its outcome.
+     *
+     * @param admitted  Value returned by acquire()
+     * @param connected Whether the tunnel connected
+     */
+    void release(long admitted, boolean connected) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            inFlight--;
+            if (connected && now - admitted <= latencyTargetNanos) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            } else {
+                if (!connected) failures++;
+                if (now - lastDecreaseNanos >= latencyTargetNanos) {
+                    limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+                    lastDecreaseNanos = now;
+                }
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a start admitted by {@link #acquire()} that gave up before
+     * spawning, without adapting the limit.
+     */
+    void cancel() {
+        lock.lock();
+        try {
+            inFlight--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of starts currently allowed to run at once
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of starts running
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of starts waiting for their turn
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queueDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return largest number of starts that waited at the same time
+     */
+    public int getMaxQueueDepth() {
+        lock.lock();
+        try {
+            return maxQueueDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of starts admitted so far
+     */
+    public long getStartCount() {
+        lock.lock();
+        try {
+            return starts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of admitted starts that did not connect
+     */
+    public long getFailureCount() {
+        lock.lock();
+        try {
+            return failures;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return average time starts waited for their turn
+     */
+    public long getAverageWaitMillis() {
+        lock.lock();
+        try {
+            return starts == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / starts);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return longest time a start waited for its turn
+     */
+    public long getMaxWaitMillis() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.browserstack.local;
+
+/**
+ * Status reported by the BrowserStackLocal binary for a start or stop request.
+ */
+public final class TunnelInfo {
+
+    private final String state;
+    private final int pid;
+    private final String message;
+
+    TunnelInfo(String state, int pid, String message) {
+        this.state = state;
+        this.pid = pid;
+        this.message = message;
+    }
+
+    /**
+     * @return state reported by the binary, e.g. "connected" or "disconnected"
+     */
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * @return pid of the tunnel process, or 0 if the binary did not report one
+     */
+    public int getPid() {
+        return pid;
+    }
+
+    /**
+     * @return human readable message reported by the binary, may be null
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return true if the binary reported an established tunnel
+     */
+    public boolean isConnected() {
+        return "connected".equals(state);
+    }
+
+    @Override
+    public String toString() {
+        return "TunnelInfo{state=" + state + ", pid=" + pid + ", message=" + message + "}";
+    }
+}
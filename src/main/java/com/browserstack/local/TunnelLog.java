@@ -0,0 +1,226 @@
+package com.browserstack.local;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the log file of a tunnel, turning each line into a
+ * {@link TunnelLogEvent} that is kept in a ring buffer of the most recent
+ * events and passed on to a listener.
+ *
+ * The file is read incrementally from where the previous read stopped,
+ * whenever the {@code WatchService} reports a change and at least once per
+ * poll interval, as watch services on some platforms are slow to report
+ * changes and the file may not exist yet when following starts.
+ */
+final class TunnelLog {
+
+    private static final long POLL_INTERVAL_MILLIS = 500;
+    // Longer lines are cut off, so a runaway line cannot exhaust the heap
+    private static final int MAX_LINE_BYTES = 16 * 1024;
+
+    private final TunnelLogEvent[] events;
+    private final TunnelLogListener listener;
+    private int next = 0;
+    private int count = 0;
+    private Tailer tailer;
+
+    /**
+     * @param capacity Number of recent events kept
+     * @param listener Listener receiving every event, or null
+     */
+    TunnelLog(int capacity, TunnelLogListener listener) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Log capture capacity must be at least 1");
+        }
+        this.events = new TunnelLogEvent[capacity];
+        this.listener = listener;
+    }
+
+    /**
+     * Starts following a log file from its current end, so that lines of
+     * earlier tunnels are not reported again. Stops following any file
+     * followed before.
+     *
+     * @param file Log file of the tunnel
+     */
+    void follow(Path file) {
+        Tailer started = new Tailer(file.toAbsolutePath());
+        Tailer previous;
+        synchronized (this) {
+            previous = tailer;
+            tailer = started;
+        }
+        if (previous != null) previous.close();
+        LocalThreads.io().execute(started);
+    }
+
+    /**
+     * Reads what was written to the followed file since the last read, then
+     * stops following it.
+     */
+    void unfollow() {
+        Tailer previous;
+        synchronized (this) {
+            previous = tailer;
+            tailer = null;
+        }
+        // Closed outside of this monitor: the tailer holds its own monitor
+        // while publishing, which takes this one
+        if (previous != null) previous.close();
+    }
+
+    /**
+     * @return the most recent events, oldest first
+     */
+    synchronized List<TunnelLogEvent> recent() {
+        List<TunnelLogEvent> recent = new ArrayList<TunnelLogEvent>(count);
+        int first = (next - count + events.length) % events.length;
+        for (int i = 0; i < count; i++) {
+            recent.add(events[(first + i) % events.length]);
+        }
+        return recent;
+    }
+
+    private void publish(TunnelLogEvent event) {
+        synchronized (this) {
+            events[next] = event;
+            next = (next + 1) % events.length;
+            if (count < events.length) count++;
+        }
+        if (listener != null) {
+            try {
+                listener.onLogEvent(event);
+            } catch (RuntimeException e) {
+                // A failing listener must not stop the capture
+            }
+        }
+    }
+
+    private final class Tailer implements Runnable {
+        private final Path file;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        private byte[] line = new byte[256];
+        private int lineLength = 0;
+        private long position;
+        private volatile boolean closed = false;
+        private volatile WatchService watcher;
+
+        Tailer(Path file) {
+            this.file = file;
+            try {
+                position = Files.size(file);
+            } catch (IOException e) {
+                position = 0;
+            }
+        }
+
+        public void run() {
+            try {
+                watcher = file.getFileSystem().newWatchService();
+                if (closed) {
+                    watcher.close();
+                    return;
+                }
+                Files.createDirectories(file.getParent());
+                file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException e) {
+                // Keep polling without change notifications
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+
+            try {
+                while (!closed) {
+                    read();
+                    WatchKey key = watcher == null ? null : watcher.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        key.pollEvents();
+                        key.reset();
+                    } else if (watcher == null) {
+                        Thread.sleep(POLL_INTERVAL_MILLIS);
+                    }
+                }
+            } catch (ClosedWatchServiceException e) {
+                // Closed by close()
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void close() {
+            closed = true;
+            try {
+                if (watcher != null) watcher.close();
+            } catch (IOException ignored) {
+            }
+            read();
+        }
+
+        private synchronized void read() {
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            } catch (IOException e) {
+                // Not created yet
+                return;
+            }
+            try {
+                if (channel.size() < position) {
+                    // Truncated or replaced, start over
+                    position = 0;
+                    lineLength = 0;
+                }
+                // Reads no further than the end at this point, so a close()
+                // waiting for this read is not held up by a busy writer
+                long end = channel.size();
+                channel.position(position);
+                while (position < end && channel.read(buffer) > 0) {
+                    buffer.flip();
+                    position += buffer.remaining();
+                    scan();
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                // Picked up again by the next read
+            } finally {
+                buffer.clear();
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void scan() {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                    lineLength = 0;
+                    publish(TunnelLogEvent.parse(System.currentTimeMillis(),
+                            new String(line, 0, length, StandardCharsets.UTF_8)));
+                } else if (lineLength < MAX_LINE_BYTES) {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, Math.min(MAX_LINE_BYTES, line.length * 2));
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.browserstack.local;
+
+/**
+ * A line of the tunnel's log file.
+ */
+public final class TunnelLogEvent {
+
+    public enum Level {
+        TRACE, DEBUG, INFO, WARN, ERROR,
+        // No level could be found in the line
+        UNKNOWN
+    }
+
+    private final long timestamp;
+    private final Level level;
+    private final String line;
+
+    TunnelLogEvent(long timestamp, Level level, String line) {
+        this.timestamp = timestamp;
+        this.level = level;
+        this.line = line;
+    }
+
+    /**
+     * Parses a log line, taking the first word naming a level, such as
+     * "INFO", "WARNING" or "ERROR", as the level of the line.
+     *
+     * @param timestamp Time the line was read
+     * @param line      Line without its line terminator
+     */
+    static TunnelLogEvent parse(long timestamp, String line) {
+        return new TunnelLogEvent(timestamp, levelOf(line), line);
+    }
+
+    private static Level levelOf(String line) {
+        int start = -1;
+        for (int i = 0; i <= line.length(); i++) {
+            boolean letter = i < line.length() && Character.isLetter(line.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                Level level = levelOf(line, start, i - start);
+                if (level != null) return level;
+                start = -1;
+            }
+        }
+        return Level.UNKNOWN;
+    }
+
+    private static Level levelOf(String line, int offset, int length) {
+        switch (length) {
+            case 4:
+                if (line.startsWith("INFO", offset)) return Level.INFO;
+                if (line.startsWith("WARN", offset)) return Level.WARN;
+                return null;
+            case 5:
+                if (line.startsWith("ERROR", offset) || line.startsWith("FATAL", offset)) return Level.ERROR;
+                if (line.startsWith("DEBUG", offset)) return Level.DEBUG;
+                if (line.startsWith("TRACE", offset)) return Level.TRACE;
+                return null;
+            case 7:
+                return line.startsWith("WARNING", offset) ? Level.WARN : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return time the line was read, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    @Override
+    public String toString() {
+        return level + " " + line;
+    }
+}
@@ -0,0 +1,12 @@
+package com.browserstack.local;
+
+/**
+ * Receives the lines of the tunnel's log file as they are written.
+ *
+ * Called on a binding thread, one event at a time; implementations should
+ * return quickly and hand slow work, such as sending alerts, elsewhere.
+ */
+public interface TunnelLogListener {
+
+    void onLogEvent(TunnelLogEvent event);
+}
@@ -0,0 +1,279 @@
+package com.browserstack.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Host-wide record of the tunnels started with the "shareTunnel" option, so
+ * that other JVMs starting a tunnel with the same options attach to the
+ * running one instead of spawning a conflicting binary.
+ *
+ * Every tunnel is keyed by a hash of its options and records its pid,
+ * localIdentifier and the pids of the JVMs attached to it, one entry per
+ * attached Local instance. The last instance to detach stops the tunnel.
+ * All access goes through a {@link Session}, which holds a lock on the
+ * registry file for as long as it is open.
+ */
+final class TunnelRegistry {
+
+    // Options that do not change which tunnel is started
+    private static final List<String> IGNORED_OPTIONS = Arrays.asList("binarypath", "onlyCommand", "shareTunnel", "preflightTimeout");
+
+    private static final ConcurrentHashMap<String, ReentrantLock> JVM_LOCKS = new ConcurrentHashMap<String, ReentrantLock>();
+
+    private final Path file;
+
+    TunnelRegistry(File file) {
+        this.file = file.getAbsoluteFile().toPath();
+    }
+
+    /**
+     * @return registry shared by all JVMs of the current user on this host
+     */
+    static TunnelRegistry forHost() {
+        return new TunnelRegistry(new File(System.getProperty("user.home") + "/.browserstack/tunnels.properties"));
+    }
+
+    /**
+     * @param options Options a tunnel is started with
+     * @return hash identifying tunnels started with equivalent options
+     */
+    static String optionsHash(Map<String, String> options) {
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (Map.Entry<String, String> opt : options.entrySet()) {
+            String name = opt.getKey().trim();
+            if (!IGNORED_OPTIONS.contains(name)) {
+                sorted.put(name, opt.getValue() == null ? "" : opt.getValue().trim());
+            }
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Map.Entry<String, String> opt : sorted.entrySet()) {
+                digest.update(opt.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(opt.getValue().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            byte[] hash = digest.digest();
+            for (int i = 0; i < 16; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Locks the registry, blocking until no other thread or process holds it,
+     * and drops entries of tunnels and JVMs that are no longer running.
+     *
+     * @return open session, to be closed by the caller
+     * @throws LocalException if the registry file cannot be locked or read
+     */
+    Session open() throws LocalException {
+        ReentrantLock jvmLock = JVM_LOCKS.get(file.toString());
+        if (jvmLock == null) {
+            ReentrantLock newLock = new ReentrantLock();
+            jvmLock = JVM_LOCKS.putIfAbsent(file.toString(), newLock);
+            if (jvmLock == null) jvmLock = newLock;
+        }
+
+        jvmLock.lock();
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(file.getParent());
+            channel = FileChannel.open(file.resolveSibling(file.getFileName() + ".lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock fileLock = channel.lock();
+            Session session = new Session(jvmLock, channel, fileLock);
+            session.load();
+            return session;
+        } catch (Exception e) {
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException ignored) {
+            }
+            jvmLock.unlock();
+            throw new LocalException("Error accessing tunnel registry " + file + ": " + e);
+        }
+    }
+
+    /**
+     * A running tunnel recorded in the registry.
+     */
+    static final class Entry {
+        final int pid;
+        final String localIdentifier;
+        final List<Long> attached;
+
+        Entry(int pid, String localIdentifier, List<Long> attached) {
+            this.pid = pid;
+            this.localIdentifier = localIdentifier;
+            this.attached = attached;
+        }
+    }
+
+    final class Session {
+        private final ReentrantLock jvmLock;
+        private final FileChannel channel;
+        private final FileLock fileLock;
+        private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+        private boolean dirty = false;
+
+        private Session(ReentrantLock jvmLock, FileChannel channel, FileLock fileLock) {
+            this.jvmLock = jvmLock;
+            this.channel = channel;
+            this.fileLock = fileLock;
+        }
+
+        /**
+         * Attaches the calling JVM to a running tunnel.
+         *
+         * @param hash Options hash of the tunnel
+         * @return the running tunnel, or null if there is none
+         */
+        Entry attach(String hash) {
+            Entry entry = entries.get(hash);
+            if (entry == null) return null;
+            entry.attached.add(ProcessSupport.currentPid());
+            dirty = true;
+            return entry;
+        }
+
+        /**
+         * Records a tunnel started by the calling JVM.
+         */
+        void register(String hash, int pid, String localIdentifier) {
+            List<Long> attached = new ArrayList<Long>();
+            attached.add(ProcessSupport.currentPid());
+            entries.put(hash, new Entry(pid, localIdentifier, attached));
+            dirty = true;
+        }
+
+        /**
+         * Detaches the calling JVM from a tunnel.
+         *
+         * @param hash Options hash of the tunnel
+         * @return true if nobody else is attached and the caller should stop the tunnel
+         */
+        boolean detach(String hash) {
+            Entry entry = entries.get(hash);
+            if (entry == null) return true;
+            entry.attached.remove(Long.valueOf(ProcessSupport.currentPid()));
+            dirty = true;
+            if (entry.attached.isEmpty()) {
+                entries.remove(hash);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Writes back any changes and releases the registry.
+         *
+         * @throws LocalException if the changes could not be written
+         */
+        void close() throws LocalException {
+            try {
+                if (dirty) store();
+            } catch (IOException e) {
+                throw new LocalException("Error writing tunnel registry " + file + ": " + e);
+            } finally {
+                try {
+                    fileLock.release();
+                    channel.close();
+                } catch (IOException ignored) {
+                } finally {
+                    jvmLock.unlock();
+                }
+            }
+        }
+
+        private void load() throws IOException {
+            if (!Files.exists(file)) return;
+            Properties props = new Properties();
+            InputStream in = Files.newInputStream(file);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+
+            for (String name : props.stringPropertyNames()) {
+                if (!name.endsWith(".pid")) continue;
+                String hash = name.substring(0, name.length() - ".pid".length());
+                int pid = Integer.parseInt(props.getProperty(name));
+                if (!ProcessSupport.isAlive(pid)) {
+                    dirty = true;
+                    continue;
+                }
+
+                List<Long> attached = new ArrayList<Long>();
+                for (String jvm : props.getProperty(hash + ".attached", "").split(",")) {
+                    if (!jvm.isEmpty()) attached.add(Long.parseLong(jvm));
+                }
+                // Forget JVMs that exited without detaching
+                for (Iterator<Long> it = attached.iterator(); it.hasNext(); ) {
+                    if (!ProcessSupport.isAlive(it.next())) {
+                        it.remove();
+                        dirty = true;
+                    }
+                }
+                entries.put(hash, new Entry(pid, props.getProperty(hash + ".localIdentifier"), attached));
+            }
+        }
+
+        private void store() throws IOException {
+            Properties props = new Properties();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                props.setProperty(e.getKey() + ".pid", String.valueOf(entry.pid));
+                if (entry.localIdentifier != null) {
+                    props.setProperty(e.getKey() + ".localIdentifier", entry.localIdentifier);
+                }
+                StringBuilder attached = new StringBuilder();
+                for (Long jvm : entry.attached) {
+                    if (attached.length() > 0) attached.append(',');
+                    attached.append(jvm);
+                }
+                props.setProperty(e.getKey() + ".attached", attached.toString());
+            }
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            OutputStream out = Files.newOutputStream(tmp);
+            try {
+                props.store(out, "BrowserStack Local tunnels shared between JVMs");
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.browserstack.local;
+
+/**
+ * Reads a {@link TunnelInfo} out of a status response of the binary, e.g.
+ *
+ * <pre>
+ * {"state":"connected","pid":1234,"message":{"message":"Connected"}}
+ * </pre>
+ *
+ * The response is scanned once, in place: only the top level "state", "pid"
+ * and "message" values are turned into objects, everything else is stepped
+ * over without building a tree of it. "message" is either a string or an
+ * object holding the string in its own "message" field.
+ */
+final class TunnelStatusParser {
+
+    private final CharSequence json;
+    private final StringBuilder buffer = new StringBuilder(32);
+    private int pos = 0;
+
+    private TunnelStatusParser(CharSequence json) {
+        this.json = json;
+    }
+
+    /**
+     * @param json Status response of the binary
+     * @return the status it reports
+     * @throws LocalException if the response is not a JSON object
+     */
+    static TunnelInfo parse(CharSequence json) throws LocalException {
+        return new TunnelStatusParser(json).status();
+    }
+
+    private TunnelInfo status() throws LocalException {
+        String state = "";
+        int pid = 0;
+        String message = null;
+
+        expect('{');
+        if (!consume('}')) {
+            do {
+                readString();
+                expect(':');
+                skipWhitespace();
+                if (keyIs("state")) {
+                    state = readScalar("");
+                } else if (keyIs("pid")) {
+                    pid = readInt();
+                } else if (keyIs("message")) {
+                    message = peek() == '{' ? nestedMessage() : readScalar("");
+                } else {
+                    skipValue();
+                }
+            } while (consume(','));
+            expect('}');
+        }
+        skipWhitespace();
+        if (pos != json.length()) throw malformed("trailing characters");
+        return new TunnelInfo(state, pid, message);
+    }
+
+    private String nestedMessage() throws LocalException {
+        String message = null;
+        expect('{');
+        if (!consume('}')) {
+            do {
+                readString();
+                expect(':');
+                skipWhitespace();
+                if (keyIs("message") && peek() != '{' && peek() != '[') {
+                    message = readScalar(null);
+                } else {
+                    skipValue();
+                }
+            } while (consume(','));
+            expect('}');
+        }
+        return message;
+    }
+
+    private boolean keyIs(String key) {
+        return key.contentEquals(buffer);
+    }
+
+    /**
+     * Reads a value as text, the way org.json's optString did.
+     *
+     * @param ifNull Text of a JSON null
+     */
+    private String readScalar(String ifNull) throws LocalException {
+        if (peek() == '"') {
+            readString();
+            return buffer.toString();
+        }
+        int start = pos;
+        skipValue();
+        String text = json.subSequence(start, pos).toString();
+        return "null".equals(text) ? ifNull : text;
+    }
+
+    /**
+     * Reads a number, or a string holding one, as an int; anything else is 0.
+     */
+    private int readInt() throws LocalException {
+        if (peek() == '"') {
+            readString();
+            return toInt(buffer, 0, buffer.length());
+        }
+        int start = pos;
+        skipValue();
+        return toInt(json, start, pos);
+    }
+
+    private static int toInt(CharSequence text, int start, int end) {
+        int i = start;
+        boolean negative = i < end && text.charAt(i) == '-';
+        if (negative) i++;
+        if (i == end) return 0;
+        long value = 0;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.' || c == 'e' || c == 'E') break;
+            if (c < '0' || c > '9') return 0;
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE) return 0;
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    private void skipValue() throws LocalException {
+        char c = peek();
+        if (c == '"') {
+            readString();
+        } else if (c == '{' || c == '[') {
+            char close = c == '{' ? '}' : ']';
+            pos++;
+            if (consume(close)) return;
+            do {
+                if (close == '}') {
+                    readString();
+                    expect(':');
+                }
+                skipWhitespace();
+                skipValue();
+            } while (consume(','));
+            expect(close);
+        } else {
+            skipLiteral();
+        }
+    }
+
+    private void skipLiteral() throws LocalException {
+        int start = pos;
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || c == '-' || c == '+' || c == '.' || c == 'E') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (pos == start) throw malformed("unexpected character");
+    }
+
+    /**
+     * Reads a string into the buffer, decoding escapes.
+     */
+    private void readString() throws LocalException {
+        expect('"');
+        buffer.setLength(0);
+        while (pos < json.length()) {
+            char c = json.charAt(pos++);
+            if (c == '"') return;
+            if (c != '\\') {
+                buffer.append(c);
+                continue;
+            }
+            if (pos >= json.length()) break;
+            char escaped = json.charAt(pos++);
+            switch (escaped) {
+                case 'b':
+                    buffer.append('\b');
+                    break;
+                case 'f':
+                    buffer.append('\f');
+                    break;
+                case 'n':
+                    buffer.append('\n');
+                    break;
+                case 'r':
+                    buffer.append('\r');
+                    break;
+                case 't':
+                    buffer.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > json.length()) throw malformed("truncated escape");
+                    int code = 0;
+                    for (int end = pos + 4; pos < end; pos++) {
+                        int digit = Character.digit(json.charAt(pos), 16);
+                        if (digit < 0) throw malformed("invalid escape");
+                        code = code * 16 + digit;
+                    }
+                    buffer.append((char) code);
+                    break;
+                default:
+                    buffer.append(escaped);
+            }
+        }
+        throw malformed("unterminated string");
+    }
+
+    private void expect(char c) throws LocalException {
+        if (!consume(c)) throw malformed("expected '" + c + "'");
+    }
+
+    private boolean consume(char c) {
+        skipWhitespace();
+        if (pos < json.length() && json.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private char peek() throws LocalException {
+        if (pos >= json.length()) throw malformed("unexpected end");
+        return json.charAt(pos);
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private LocalException malformed(String reason) {
+        return new LocalException("Unexpected response from BrowserStackLocal (" + reason + " at " + pos + "): " + json);
+    }
+}
@@ -0,0 +1,161 @@
+package com.browserstack.local;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Restarts the tunnel of a {@link Local} instance when it exits without
+ * {@link Local#stop()} having been called.
+ *
+ * Restarts are retried with exponential backoff, each delay randomized
+ * between half and all of its nominal value so that many supervised
+ * instances do not reconnect in lockstep.
+ */
+final class TunnelSupervisor {
+
+    private final Local local;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private boolean available = false;
+    private boolean stopped = false;
+    private int reconnects = 0;
+    private long downSince = 0;
+    private long downtimeNanos = 0;
+    private ScheduledFuture<?> pendingRestart;
+
+    TunnelSupervisor(Local local, long initialBackoffMillis, long maxBackoffMillis) {
+        this.local = local;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Starts watching a connected tunnel.
+     *
+     * @param exit future completed when the tunnel exits
+     */
+    void watch(CompletableFuture<Local> exit) {
+        synchronized (this) {
+            if (stopped) return;
+            markUp();
+        }
+        exit.whenComplete(new BiConsumer<Local, Throwable>() {
+            public void accept(Local l, Throwable t) {
+                onTunnelExit();
+            }
+        });
+    }
+
+    /**
+     * Stops supervising, called before the tunnel is stopped on purpose.
+     */
+    synchronized void stop() {
+        stopped = true;
+        markDownUntilStopped();
+        if (pendingRestart != null) {
+            pendingRestart.cancel(false);
+        }
+        notifyAll();
+    }
+
+    synchronized void resume() {
+        stopped = false;
+    }
+
+    synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    synchronized int getReconnectCount() {
+        return reconnects;
+    }
+
+    synchronized long getDowntimeMillis() {
+        long total = downtimeNanos;
+        if (!available && downSince != 0) {
+            total += System.nanoTime() - downSince;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(total);
+    }
+
+    /**
+     * Waits for the tunnel to be connected.
+     *
+     * @return true if the tunnel is connected, false if the timeout elapsed or
+     * supervision was stopped first
+     */
+    synchronized boolean awaitAvailable(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!available && !stopped) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return available;
+    }
+
+    private void onTunnelExit() {
+        synchronized (this) {
+            if (stopped || !available) return;
+            available = false;
+            downSince = System.nanoTime();
+        }
+        scheduleRestart(0);
+    }
+
+    private synchronized void scheduleRestart(final int attempt) {
+        if (stopped) return;
+        long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt, 30));
+        long delay = attempt == 0 ? 0 : ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+        pendingRestart = LocalThreads.scheduler().schedule(new Runnable() {
+            public void run() {
+                LocalThreads.io().execute(new Runnable() {
+                    public void run() {
+                        restart(attempt);
+                    }
+                });
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void restart(int attempt) {
+        synchronized (this) {
+            if (stopped) return;
+        }
+        try {
+            if (local.restartTunnel()) {
+                synchronized (this) {
+                    reconnects++;
+                }
+            }
+        } catch (Exception e) {
+            scheduleRestart(attempt + 1);
+        }
+    }
+
+    private void markUp() {
+        if (!available && downSince != 0) {
+            downtimeNanos += System.nanoTime() - downSince;
+            downSince = 0;
+        }
+        available = true;
+        // Connected by a start of its own, a retry still waiting is not needed
+        if (pendingRestart != null) {
+            pendingRestart.cancel(false);
+            pendingRestart = null;
+        }
+        notifyAll();
+    }
+
+    private void markDownUntilStopped() {
+        if (!available && downSince != 0) {
+            downtimeNanos += System.nanoTime() - downSince;
+        }
+        downSince = 0;
+        available = false;
+    }
+}
@@ -0,0 +1,23 @@
+package com.browserstack.local;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor used for blocking process I/O unless one is set with
+ * {@link Local#setIoExecutor}. This is the Java 21 variant of the class,
+ * packaged into the multi-release jar.
+ */
+final class DefaultIoExecutor {
+
+    private DefaultIoExecutor() {
+    }
+
+    /**
+     * @return executor running every task on its own virtual thread, so that
+     * pipe reads and waits of many tunnels do not each hold a platform thread
+     */
+    static ExecutorService create() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("browserstack-local-io-", 1).factory());
+    }
+}
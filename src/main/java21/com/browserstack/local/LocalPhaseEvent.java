@@ -0,0 +1,46 @@
+package com.browserstack.local;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a phase of the tunnel lifecycle. This is the
+ * Java 21 variant of the class, packaged into the multi-release jar.
+ *
+ * Only referenced through {@link LocalMetrics} once it confirmed that
+ * jdk.jfr is present, so the binding still runs on JVMs without it.
+ */
+@Name("com.browserstack.local.Phase")
+@Label("BrowserStack Local Phase")
+@Category({"BrowserStack", "Local"})
+@Description("A phase of starting or stopping a BrowserStack Local tunnel")
+@StackTrace(false)
+final class LocalPhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Success")
+    boolean success;
+
+    static Object begin(LocalPhase phase) {
+        LocalPhaseEvent event = new LocalPhaseEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.phase = phase.name();
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object event, boolean success) {
+        LocalPhaseEvent phaseEvent = (LocalPhaseEvent) event;
+        phaseEvent.end();
+        phaseEvent.success = success;
+        phaseEvent.commit();
+    }
+}
@@ -0,0 +1,133 @@
+package com.browserstack.local;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryDownloaderTest {
+    private static final String ETAG = "\"v1\"";
+
+    private final byte[] payload = new byte[300 * 1024];
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<String> ranges = new ArrayList<String>();
+    private HttpServer server;
+    private File dir;
+    private URL url;
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i % 251);
+        }
+        dir = Files.createTempDirectory("bs-download").toFile();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/BrowserStackLocal", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                OutputStream out;
+                if (range != null && ETAG.equals(ifRange)) {
+                    synchronized (ranges) {
+                        ranges.add(range);
+                    }
+                    int from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                    exchange.sendResponseHeaders(206, payload.length - from);
+                    out = exchange.getResponseBody();
+                    out.write(payload, from, payload.length - from);
+                } else {
+                    exchange.sendResponseHeaders(200, payload.length);
+                    out = exchange.getResponseBody();
+                    out.write(payload);
+                }
+                out.close();
+            }
+        });
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/BrowserStackLocal");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testDownloadIsRenamedIntoPlace() throws Exception {
+        File binary = new File(dir, "BrowserStackLocal");
+        BinaryDownloader.download(url, binary);
+
+        assertArrayEquals(payload, Files.readAllBytes(binary.toPath()));
+        assertTrue(binary.canExecute());
+        assertFalse(new File(dir, "BrowserStackLocal.part").exists());
+    }
+
+    @Test
+    public void testPartialDownloadIsResumed() throws Exception {
+        File binary = new File(dir, "BrowserStackLocal");
+        Files.write(new File(dir, "BrowserStackLocal.part").toPath(), Arrays.copyOf(payload, 1000));
+        Files.write(new File(dir, "BrowserStackLocal.part.validator").toPath(), ETAG.getBytes("UTF-8"));
+
+        BinaryDownloader.download(url, binary);
+
+        assertEquals(Arrays.asList("bytes=1000-"), ranges);
+        assertArrayEquals(payload, Files.readAllBytes(binary.toPath()));
+    }
+
+    @Test
+    public void testConcurrentDownloadsAreSingleFlight() throws Exception {
+        final File binary = new File(dir, "BrowserStackLocal");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    BinaryDownloader.downloadIfMissing(url, binary);
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(1, requests.get());
+        assertArrayEquals(payload, Files.readAllBytes(binary.toPath()));
+
+        // Late callers reuse the finished download as well
+        BinaryDownloader.downloadIfMissing(url, binary);
+        assertEquals(1, requests.get());
+        BinaryDownloader.download(url, binary);
+        assertEquals(2, requests.get());
+    }
+}
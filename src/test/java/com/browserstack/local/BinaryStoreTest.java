@@ -0,0 +1,213 @@
+package com.browserstack.local;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryStoreTest {
+    private HttpServer server;
+    private URL url;
+    private File dir;
+    private volatile String payload;
+    // Run while answering a HEAD request, after its answer was decided
+    private volatile Runnable onHead;
+    private ExecutorService executor;
+    private final AtomicInteger downloads = new AtomicInteger();
+    private final AtomicInteger heads = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("binaries").toFile();
+        publish(1);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/BrowserStackLocal", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String etag = "\"" + payload.hashCode() + "\"";
+                exchange.getResponseHeaders().set("ETag", etag);
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    heads.incrementAndGet();
+                    boolean unchanged = etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"));
+                    Runnable hook = onHead;
+                    onHead = null;
+                    if (hook != null) hook.run();
+                    exchange.sendResponseHeaders(unchanged ? 304 : 200, -1);
+                } else {
+                    downloads.incrementAndGet();
+                    byte[] body = payload.getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/BrowserStackLocal");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testProvideDownloadsOnce() throws Exception {
+        BinaryStore store = new BinaryStore(dir, "BrowserStackLocal");
+        BinaryStore.Version version = store.provide(url, null);
+        assertEquals(version.digest, store.provide(url, null).digest);
+        assertEquals(1, downloads.get());
+        assertEquals(version.digest, BinaryStore.sha256(Paths.get(version.path)));
+        assertTrue(version.path.startsWith(new File(dir, version.digest).getPath()));
+    }
+
+    @Test
+    public void testRevalidateUnchangedOnlyAsks() throws Exception {
+        BinaryStore store = new BinaryStore(dir, "BrowserStackLocal");
+        BinaryStore.Version version = store.provide(url, null);
+        assertFalse(store.revalidate(url));
+        assertEquals(version.digest, store.current().digest);
+        assertEquals(1, downloads.get());
+    }
+
+    @Test
+    public void testRevalidateSwitchesToNewVersion() throws Exception {
+        BinaryStore store = new BinaryStore(dir, "BrowserStackLocal");
+        BinaryStore.Version first = store.provide(url, null);
+        publish(2);
+        assertTrue(store.revalidate(url));
+        BinaryStore.Version second = store.current();
+        assertNotEquals(first.digest, second.digest);
+        // A tunnel still running the old version keeps its file
+        assertTrue(new File(first.path).isFile());
+    }
+
+    @Test
+    public void testRevalidateKeepsVersionSwappedInMeanwhile() throws Exception {
+        final BinaryStore store = new BinaryStore(dir, "BrowserStackLocal");
+        final BinaryStore.Version first = store.provide(url, null);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        // Another process updates the store while this one is asking the server
+        onHead = new Runnable() {
+            public void run() {
+                publish(2);
+                try {
+                    new BinaryStore(dir, "BrowserStackLocal").replace(url, first);
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        };
+        assertTrue(store.revalidate(url));
+        assertNull(failure.get());
+        BinaryStore.Version second = store.current();
+        assertNotEquals(first.digest, second.digest);
+        assertTrue(new File(second.path).isFile());
+    }
+
+    @Test
+    public void testPruneKeepsRecentVersions() throws Exception {
+        BinaryStore store = new BinaryStore(dir, "BrowserStackLocal");
+        BinaryStore.Version first = store.provide(url, null);
+        for (int v = 2; v <= 4; v++) {
+            publish(v);
+            Thread.sleep(10);
+            store.revalidate(url);
+        }
+        assertFalse(new File(first.path).exists());
+        int versions = 0;
+        for (File entry : dir.listFiles()) {
+            if (entry.getName().length() == 64) versions++;
+        }
+        assertEquals(2, versions);
+    }
+
+    @Test
+    public void testProvideImportsLegacyBinary() throws Exception {
+        File legacy = new File(dir, "legacy");
+        Files.write(legacy.toPath(), payload.getBytes(StandardCharsets.UTF_8));
+        BinaryStore store = new BinaryStore(new File(dir, "store"), "BrowserStackLocal");
+        BinaryStore.Version version = store.provide(url, legacy);
+        assertEquals(0, downloads.get());
+        assertTrue(new File(version.path).canExecute());
+    }
+
+    @Test
+    public void testProvideBundledFromJarWithoutNetwork() throws Exception {
+        File jar = new File(dir, "binary.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        out.putNextEntry(new JarEntry("com/browserstack/local/bin/BrowserStackLocal-linux-x64"));
+        out.write(payload.getBytes(StandardCharsets.UTF_8));
+        out.close();
+        URL resource = new URL("jar:" + jar.toURI() + "!/com/browserstack/local/bin/BrowserStackLocal-linux-x64");
+        String digest = sha256(payload);
+
+        BinaryStore store = new BinaryStore(new File(dir, "store"), "BrowserStackLocal");
+        BinaryStore.Version version = store.provideBundled(resource, digest);
+        assertEquals(digest, version.digest);
+        assertTrue(new File(version.path).canExecute());
+        assertEquals(0, downloads.get() + heads.get());
+
+        // Found by its digest, without extracting it again
+        long extractedAt = new File(version.path).lastModified();
+        Thread.sleep(10);
+        assertEquals(version.path, store.provideBundled(resource, digest).path);
+        assertEquals(extractedAt, new File(version.path).lastModified());
+    }
+
+    @Test
+    public void testProvideBundledRejectsDigestMismatch() throws Exception {
+        File bundled = new File(dir, "BrowserStackLocal-linux-x64");
+        Files.write(bundled.toPath(), payload.getBytes(StandardCharsets.UTF_8));
+        BinaryStore store = new BinaryStore(new File(dir, "store"), "BrowserStackLocal");
+        try {
+            store.provideBundled(bundled.toURI().toURL(), sha256("something else"));
+            fail("Expected the digest check to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("expected"));
+        }
+        assertEquals(sha256(payload), store.provideBundled(bundled.toURI().toURL(), null).digest);
+    }
+
+    private static String sha256(String content) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8))) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private void publish(int version) {
+        payload = "#!/bin/sh\necho \"BrowserStack Local version 8.0\"\n# v" + version + "\n";
+    }
+}
@@ -0,0 +1,71 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocalBinaryTest {
+    private File binary;
+    private File invocations;
+
+    @Before
+    public void setUp() throws Exception {
+        invocations = File.createTempFile("invocations", ".log");
+        binary = File.createTempFile("BrowserStackLocal", ".sh");
+        writeBinary("");
+    }
+
+    @After
+    public void tearDown() {
+        binary.delete();
+        invocations.delete();
+    }
+
+    @Test
+    public void testResolveIsMemoized() throws Exception {
+        String path = binary.getAbsolutePath();
+        assertEquals(path, LocalBinary.resolve(path));
+        assertEquals(path, LocalBinary.resolve(path));
+        assertEquals(path, LocalBinary.resolve(path));
+        assertEquals(1, countInvocations());
+    }
+
+    @Test
+    public void testResolveRevalidatesChangedBinary() throws Exception {
+        String path = binary.getAbsolutePath();
+        LocalBinary.resolve(path);
+        writeBinary("# updated\n");
+        LocalBinary.resolve(path);
+        LocalBinary.resolve(path);
+        assertEquals(2, countInvocations());
+    }
+
+    @Test
+    public void testResolveJoinsPreparation() throws Exception {
+        writeBinary("sleep 1\n");
+        String path = binary.getAbsolutePath();
+        LocalBinary.prepare(path, LocalThreads.io());
+        assertEquals(path, LocalBinary.resolve(path));
+        assertEquals(1, countInvocations());
+    }
+
+    private void writeBinary(String extra) throws Exception {
+        FileWriter writer = new FileWriter(binary);
+        writer.write("#!/bin/sh\n" + extra
+                + "echo run >> " + invocations.getAbsolutePath() + "\n"
+                + "echo \"BrowserStack Local version 8.0\"\n");
+        writer.close();
+        binary.setExecutable(true);
+    }
+
+    private int countInvocations() throws Exception {
+        return Files.readAllLines(invocations.toPath(), StandardCharsets.UTF_8).size();
+    }
+}
@@ -0,0 +1,93 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalMetricsTest {
+    private final LocalSimulator simulator = new LocalSimulator();
+    private final List<LocalPhase> phases = new ArrayList<LocalPhase>();
+    private final List<Boolean> outcomes = new ArrayList<Boolean>();
+    private final List<Long> durations = new ArrayList<Long>();
+    private final Thread testThread = Thread.currentThread();
+
+    private final LocalMetricsListener recorder = new LocalMetricsListener() {
+        public void onPhaseCompleted(LocalPhase phase, long durationNanos, boolean success) {
+            // Validation only runs the first time a binary is seen
+            if (Thread.currentThread() != testThread || phase == LocalPhase.BINARY_VALIDATE) return;
+            synchronized (phases) {
+                phases.add(phase);
+                outcomes.add(success);
+                durations.add(durationNanos);
+            }
+        }
+    };
+
+    private final LocalMetricsListener failing = new LocalMetricsListener() {
+        public void onPhaseCompleted(LocalPhase phase, long durationNanos, boolean success) {
+            throw new IllegalStateException("Broken listener");
+        }
+    };
+
+    @Before
+    public void setUp() {
+        LocalMetrics.addListener(failing);
+        LocalMetrics.addListener(recorder);
+    }
+
+    @After
+    public void tearDown() {
+        LocalMetrics.removeListener(failing);
+        LocalMetrics.removeListener(recorder);
+    }
+
+    @Test
+    public void testStartAndStopPhases() throws Exception {
+        simulator.connectDelay(20);
+        Local local = simulator.newLocal();
+        local.start(simulator.options("metrics"));
+        local.stop();
+
+        assertEquals(Arrays.asList(LocalPhase.BINARY_RESOLVE, LocalPhase.PROCESS_SPAWN, LocalPhase.CONNECT,
+                LocalPhase.START, LocalPhase.STOP), phases);
+        assertEquals(Arrays.asList(true, true, true, true, true), outcomes);
+        // The start includes the connect, which includes the simulated delay
+        long connect = durations.get(2);
+        assertTrue(connect >= 20000000L);
+        assertTrue(durations.get(3) >= connect);
+    }
+
+    @Test
+    public void testFailedStartIsReported() throws Exception {
+        simulator.failureRate(1);
+        Local local = simulator.newLocal();
+        try {
+            local.start(simulator.options("metrics"));
+            fail("Expected the simulated start to fail");
+        } catch (LocalException e) {
+            assertEquals(LocalSimulator.FAILURE_MESSAGE, e.getMessage());
+        }
+
+        assertEquals(Arrays.asList(LocalPhase.BINARY_RESOLVE, LocalPhase.PROCESS_SPAWN, LocalPhase.CONNECT,
+                LocalPhase.START), phases);
+        assertEquals(Arrays.asList(true, true, false, false), outcomes);
+    }
+
+    @Test
+    public void testRemovedListenerIsNotCalled() throws Exception {
+        LocalMetrics.removeListener(recorder);
+        Local local = simulator.newLocal();
+        local.start(simulator.options("metrics"));
+        local.stop();
+
+        assertTrue(phases.isEmpty());
+    }
+}
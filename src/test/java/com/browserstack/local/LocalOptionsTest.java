@@ -0,0 +1,71 @@
+package com.browserstack.local;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalOptionsTest {
+
+    @Test
+    public void testFalseFlagsAreNotPassed() {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("key", "dummy");
+        map.put("force", "false");
+        map.put("forcelocal", "true");
+        map.put("onlyCommand", "true");
+        List<String> command = LocalOptions.fromMap(map).startCommand("/bin/BrowserStackLocal");
+
+        assertFalse(command.contains("-force"));
+        assertFalse(command.contains("false"));
+        assertTrue(command.contains("-forcelocal"));
+        assertFalse(command.contains("-onlyCommand"));
+    }
+
+    @Test
+    public void testBuilderMatchesMap() {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("key", "dummy");
+        map.put("localIdentifier", "abcdef");
+        map.put("v", "true");
+        LocalOptions options = LocalOptions.builder().key("dummy").localIdentifier("abcdef").verbose(true).build();
+
+        assertEquals(LocalOptions.fromMap(map), options);
+        List<String> stop = options.stopCommand("/bin/BrowserStackLocal");
+        assertEquals("stop", stop.get(2));
+        assertTrue(stop.contains("-vvv"));
+        assertEquals("abcdef", stop.get(stop.indexOf("-localIdentifier") + 1));
+    }
+
+    @Test
+    public void testCommandsAreReused() {
+        LocalOptions options = LocalOptions.builder().key("dummy").only("localhost,8080,0").build();
+        assertSame(options.startCommand("/bin/BrowserStackLocal"), options.startCommand("/bin/BrowserStackLocal"));
+        assertEquals("/tmp/BrowserStackLocal", options.startCommand("/tmp/BrowserStackLocal").get(0));
+    }
+
+    @Test
+    public void testKeyIsOnlyRequiredToStart() throws Exception {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("localIdentifier", "abcdef");
+        map.put("onlyCommand", "true");
+        LocalOptions options = LocalOptions.fromMap(map);
+        assertTrue(options.startCommand("/bin/BrowserStackLocal").contains("abcdef"));
+
+        Local local = new Local();
+        try {
+            local.start(options.toBuilder().onlyCommand(false).build());
+            fail("Expected a start without a key to be rejected");
+        } catch (LocalException e) {
+            assertTrue(e.getMessage().contains("key"));
+        }
+        assertEquals(LocalState.STOPPED, local.getState());
+    }
+}
@@ -0,0 +1,117 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalPoolTest {
+    private final LocalSimulator simulator = new LocalSimulator();
+    private Map<String, String> options;
+    private LocalPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        options = simulator.options(null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (pool != null) pool.close();
+        assertEquals(0, simulator.getRunningCount());
+    }
+
+    @Test
+    public void testStartPrewarmsDistinctIdentifiers() throws Exception {
+        pool = new StubPool(options, 3, 5, 0);
+        pool.start();
+        assertEquals(3, pool.getSize());
+        assertEquals(3, pool.getIdleCount());
+
+        Set<String> identifiers = new HashSet<String>();
+        for (int i = 0; i < 3; i++) {
+            identifiers.add(pool.acquire().getLocalIdentifier());
+        }
+        assertEquals(3, identifiers.size());
+        assertEquals(3, pool.getLeasedCount());
+    }
+
+    @Test
+    public void testAcquireGrowsUpToMaxSize() throws Exception {
+        pool = new StubPool(options, 0, 2, 0);
+        LocalPool.Lease first = pool.acquire();
+        pool.acquire();
+        assertEquals(2, pool.getSize());
+        try {
+            pool.acquire(50, TimeUnit.MILLISECONDS);
+            fail("Expected acquire to time out");
+        } catch (LocalException e) {
+            assertTrue(e.getMessage().contains("Timed out"));
+        }
+
+        String identifier = first.getLocalIdentifier();
+        first.close();
+        assertEquals(identifier, pool.acquire(50, TimeUnit.MILLISECONDS).getLocalIdentifier());
+        assertEquals(2, pool.getSize());
+    }
+
+    @Test
+    public void testIdleTunnelsShrinkToMinSize() throws Exception {
+        pool = new StubPool(options, 1, 3, 50);
+        pool.start();
+        LocalPool.Lease a = pool.acquire();
+        LocalPool.Lease b = pool.acquire();
+        LocalPool.Lease c = pool.acquire();
+        assertEquals(3, pool.getSize());
+        a.close();
+        b.close();
+        c.close();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getSize() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, pool.getSize());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testAcquireReplacesIdleTunnelThatDied() throws Exception {
+        pool = new StubPool(options, 1, 1, 0);
+        pool.start();
+        LocalPool.Lease lease = pool.acquire();
+        Local dead = lease.getLocal();
+        lease.close();
+
+        assertTrue(simulator.kill(dead.pid));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dead.getState() == LocalState.CONNECTED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        lease = pool.acquire(1, TimeUnit.SECONDS);
+        assertTrue(lease.getLocal() != dead);
+        assertTrue(lease.getLocal().isRunning());
+        assertEquals(1, pool.getSize());
+        assertEquals(1, simulator.getRunningCount());
+    }
+
+    private class StubPool extends LocalPool {
+        StubPool(Map<String, String> options, int minSize, int maxSize, long idleTimeoutMillis) {
+            super(options, minSize, maxSize, idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        protected Local createLocal() {
+            return simulator.newLocal();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.browserstack.local;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offline stand-in for the BrowserStackLocal binary and the tunnels it runs.
+ *
+ * Locals created by {@link #newLocal()} never fork: their "-d start" and
+ * "-d stop" invocations are answered with the binary's JSON responses, after
+ * a configurable connect delay, and their pids are liveness-checked against
+ * the simulated tunnels. Like the real binary, starting a second tunnel with
+ * the same key and localIdentifier fails unless "-force" is passed.
+ */
+class LocalSimulator {
+    static final String CONFLICT_MESSAGE = "Either another browserstack local client is running on your machine"
+            + " or some server is listening on port 45691";
+    static final String FAILURE_MESSAGE = "Simulated connection failure";
+
+    private static final AtomicInteger PIDS = new AtomicInteger(100000);
+
+    private final Map<String, Tunnel> tunnels = new ConcurrentHashMap<String, Tunnel>();
+    private final AtomicInteger starts = new AtomicInteger();
+    private volatile long connectDelayMillis = 0;
+    private volatile long stopDelayMillis = 0;
+    private volatile double failureRate = 0;
+    private File binary;
+
+    /**
+     * @param millis Time every "-d start" takes to report a connected tunnel,
+     *               cut short if its process is destroyed
+     */
+    LocalSimulator connectDelay(long millis) {
+        connectDelayMillis = millis;
+        return this;
+    }
+
+    /**
+     * @param millis Time every "-d stop" takes, cut short if its process is
+     *               destroyed, which leaves the tunnel running
+     */
+    LocalSimulator stopDelay(long millis) {
+        stopDelayMillis = millis;
+        return this;
+    }
+
+    /**
+     * @param rate Fraction of "-d start" invocations that fail, between 0 and 1
+     */
+    LocalSimulator failureRate(double rate) {
+        failureRate = rate;
+        return this;
+    }
+
+    /**
+     * @return script that answers --version like the real binary, for the "binarypath" option
+     */
+    synchronized File binary() throws IOException {
+        if (binary == null) {
+            binary = File.createTempFile("BrowserStackLocal", ".sh");
+            FileWriter writer = new FileWriter(binary);
+            writer.write("#!/bin/sh\necho \"BrowserStack Local version 8.0\"\n");
+            writer.close();
+            binary.setExecutable(true);
+            binary.deleteOnExit();
+        }
+        return binary;
+    }
+
+    Map<String, String> options(String localIdentifier) throws IOException {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("key", "simulated-key");
+        options.put("binarypath", binary().getAbsolutePath());
+        if (localIdentifier != null) {
+            options.put("localIdentifier", localIdentifier);
+        }
+        return options;
+    }
+
+    Local newLocal() {
+        return new SimulatedLocal();
+    }
+
+    int getRunningCount() {
+        return tunnels.size();
+    }
+
+    int getStartCount() {
+        return starts.get();
+    }
+
+    /**
+     * Makes a tunnel die as if the binary crashed.
+     *
+     * @return true if a tunnel with the pid was running
+     */
+    boolean kill(int pid) {
+        for (Map.Entry<String, Tunnel> entry : tunnels.entrySet()) {
+            if (entry.getValue().pid == pid && tunnels.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().exit.complete(null);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isTunnelRunning(int pid) {
+        for (Tunnel tunnel : tunnels.values()) {
+            if (tunnel.pid == pid) return true;
+        }
+        return false;
+    }
+
+    private CompletableFuture<Void> exitOf(int pid) {
+        for (Tunnel tunnel : tunnels.values()) {
+            if (tunnel.pid == pid) return tunnel.exit;
+        }
+        CompletableFuture<Void> gone = new CompletableFuture<Void>();
+        gone.complete(null);
+        return gone;
+    }
+
+    private String handle(List<String> command, CountDownLatch destroyed) throws InterruptedException {
+        String opCode = argument(command, "-d");
+        String tunnelKey = argument(command, "--key") + "/" + argument(command, "-localIdentifier");
+
+        if ("stop".equals(opCode)) {
+            if (stopDelayMillis > 0 && destroyed.await(stopDelayMillis, TimeUnit.MILLISECONDS)) {
+                return "";
+            }
+            Tunnel tunnel = tunnels.remove(tunnelKey);
+            if (tunnel == null) {
+                return "{\"status\":\"error\",\"message\":\"No BrowserStackLocal instance running\"}";
+            }
+            tunnel.exit.complete(null);
+            return "{\"status\":\"success\",\"message\":\"BrowserStackLocal stopped successfully\"}";
+        }
+
+        starts.incrementAndGet();
+        if (connectDelayMillis > 0 && destroyed.await(connectDelayMillis, TimeUnit.MILLISECONDS)) {
+            return "";
+        }
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            return disconnected(FAILURE_MESSAGE);
+        }
+
+        Tunnel tunnel = new Tunnel(PIDS.incrementAndGet());
+        if (command.contains("-force")) {
+            Tunnel previous = tunnels.put(tunnelKey, tunnel);
+            if (previous != null) previous.exit.complete(null);
+        } else if (tunnels.putIfAbsent(tunnelKey, tunnel) != null) {
+            return disconnected(CONFLICT_MESSAGE);
+        }
+        return "{\"state\":\"connected\",\"pid\":" + tunnel.pid + ",\"message\":{\"message\":\"Connected\"}}";
+    }
+
+    private static String disconnected(String message) {
+        return "{\"state\":\"disconnected\",\"message\":{\"message\":\"" + message + "\"}}";
+    }
+
+    private static String argument(List<String> command, String name) {
+        int i = command.indexOf(name);
+        return i >= 0 && i + 1 < command.size() ? command.get(i + 1) : null;
+    }
+
+    private static final class Tunnel {
+        final int pid;
+        final CompletableFuture<Void> exit = new CompletableFuture<Void>();
+
+        Tunnel(int pid) {
+            this.pid = pid;
+        }
+    }
+
+    private class SimulatedLocal extends Local {
+        @Override
+        protected LocalProcess runCommand(final List<String> command) {
+            final CountDownLatch destroyed = new CountDownLatch(1);
+            return new LocalProcess() {
+                private byte[] stdout;
+
+                // The response is produced on first read, like the real binary
+                // which only prints once it connected
+                public synchronized InputStream getInputStream() {
+                    if (stdout == null) {
+                        try {
+                            stdout = handle(command, destroyed).getBytes(StandardCharsets.UTF_8);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            stdout = new byte[0];
+                        }
+                    }
+                    return new ByteArrayInputStream(stdout);
+                }
+
+                public InputStream getErrorStream() {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+
+                public int waitFor() {
+                    return 0;
+                }
+
+                public void destroy() {
+                    destroyed.countDown();
+                }
+            };
+        }
+
+        @Override
+        CompletableFuture<Void> watchProcessExit(int pid) {
+            return exitOf(pid);
+        }
+
+        @Override
+        void killProcess(int pid) {
+            LocalSimulator.this.kill(pid);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.browserstack.local;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalSimulatorTest {
+    private final LocalSimulator simulator = new LocalSimulator();
+
+    @Test
+    public void testConcurrentStartStopLatency() throws Exception {
+        final int threads = 50;
+        final int cycles = 4;
+        simulator.connectDelay(20);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<Long>>> futures = new ArrayList<Future<List<Long>>>();
+        for (int t = 0; t < threads; t++) {
+            final Map<String, String> options = simulator.options("sim-" + t);
+            futures.add(executor.submit(new Callable<List<Long>>() {
+                public List<Long> call() throws Exception {
+                    List<Long> latencies = new ArrayList<Long>();
+                    for (int i = 0; i < cycles; i++) {
+                        Local local = simulator.newLocal();
+                        long begin = System.nanoTime();
+                        local.start(options);
+                        local.stop();
+                        latencies.add(System.nanoTime() - begin);
+                        assertFalse(local.isRunning());
+                    }
+                    return latencies;
+                }
+            }));
+        }
+        List<Long> latencies = new ArrayList<Long>();
+        for (Future<List<Long>> future : futures) {
+            latencies.addAll(future.get());
+        }
+        executor.shutdown();
+
+        assertEquals(threads * cycles, simulator.getStartCount());
+        assertEquals(0, simulator.getRunningCount());
+
+        // The simulated connect takes 20ms; the binding should add little on top
+        // of it even with every thread starting at once
+        Collections.sort(latencies);
+        long p99 = latencies.get(latencies.size() * 99 / 100 - 1);
+        assertTrue("p99 start/stop latency " + TimeUnit.NANOSECONDS.toMillis(p99) + "ms",
+                p99 < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    public void testMultipleBinary() throws Exception {
+        Map<String, String> options = simulator.options("conflict");
+        Local l = simulator.newLocal();
+        l.start(options);
+        assertTrue(l.isRunning());
+
+        Local l2 = simulator.newLocal();
+        try {
+            l2.start(options);
+            fail("Expected the second tunnel to conflict");
+        } catch (LocalException e) {
+            assertEquals(LocalSimulator.CONFLICT_MESSAGE, e.getMessage());
+            assertFalse(l2.isRunning());
+        }
+        assertTrue(l.isRunning());
+
+        options.put("force", "true");
+        l2.start(options);
+        assertTrue(l2.isRunning());
+        assertFalse(l.isRunning());
+        l2.stop();
+    }
+
+    @Test
+    public void testFailureInjection() throws Exception {
+        simulator.failureRate(1);
+        Local l = simulator.newLocal();
+        try {
+            l.start(simulator.options("failing"));
+            fail("Expected start to fail");
+        } catch (LocalException e) {
+            assertEquals(LocalSimulator.FAILURE_MESSAGE, e.getMessage());
+        }
+        assertFalse(l.isRunning());
+        assertEquals(0, simulator.getRunningCount());
+    }
+
+    @Test
+    public void testSupervisorReconnectsKilledTunnel() throws Exception {
+        Local l = simulator.newLocal();
+        l.enableSupervisor(10, 100, TimeUnit.MILLISECONDS);
+        l.start(simulator.options("supervised"));
+        int pid = l.pid;
+
+        assertTrue(simulator.kill(pid));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (l.getReconnectCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, l.getReconnectCount());
+        assertTrue(l.awaitAvailable(1, TimeUnit.SECONDS));
+        assertTrue(l.isRunning());
+        assertTrue(pid != l.pid);
+
+        l.stop();
+        assertEquals(0, simulator.getRunningCount());
+    }
+
+    @Test
+    public void testStopAllStopsConcurrently() throws Exception {
+        simulator.stopDelay(200);
+        List<Local> locals = startLocals("stop-all", 10);
+
+        long begin = System.nanoTime();
+        Local.stopAll(Duration.ofSeconds(10));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        assertTrue("stopAll took " + elapsed + "ms", elapsed < 1500);
+        assertEquals(0, simulator.getRunningCount());
+        for (Local local : locals) {
+            assertFalse(local.isRunning());
+        }
+    }
+
+    @Test
+    public void testStopAllKillsTunnelsThatDoNotStopInTime() throws Exception {
+        simulator.stopDelay(TimeUnit.MINUTES.toMillis(1));
+        List<Local> locals = startLocals("hung-stop", 5);
+
+        long begin = System.nanoTime();
+        Local.stopAll(Duration.ofMillis(100));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        assertTrue("stopAll took " + elapsed + "ms", elapsed < 1500);
+        assertEquals(0, simulator.getRunningCount());
+        for (Local local : locals) {
+            assertTrue(local.onExit().get(1, TimeUnit.SECONDS) == local);
+        }
+    }
+
+    @Test
+    public void testStartTimeoutKillsHungBinary() throws Exception {
+        simulator.connectDelay(TimeUnit.MINUTES.toMillis(1));
+        Map<String, String> options = simulator.options("hung-start");
+        Local l = simulator.newLocal();
+
+        long begin = System.nanoTime();
+        try {
+            l.start(options, Duration.ofMillis(100));
+            fail("Expected start to time out");
+        } catch (LocalTimeoutException e) {
+            assertTrue(e.getMessage().contains("start"));
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) < 1500);
+        assertFalse(l.isRunning());
+
+        simulator.connectDelay(0);
+        l.start(options, Duration.ofSeconds(5));
+        assertTrue(l.isRunning());
+        l.stop(Duration.ofSeconds(5));
+        assertEquals(0, simulator.getRunningCount());
+    }
+
+    @Test
+    public void testTimedOutStartQueuedForSchedulerDoesNotSpawn() throws Exception {
+        StartScheduler scheduler = new StartScheduler(1, 1, 1, TimeUnit.MINUTES);
+        Local.setStartScheduler(scheduler);
+        try {
+            simulator.connectDelay(500);
+            Local first = simulator.newLocal();
+            CompletableFuture<TunnelInfo> holdingPermit = first.startAsync(simulator.options("holds-permit"), LocalThreads.io());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (scheduler.getInFlight() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+
+            Local queued = simulator.newLocal();
+            long begin = System.nanoTime();
+            try {
+                queued.start(simulator.options("queued"), Duration.ofMillis(100));
+                fail("Expected start to time out");
+            } catch (LocalTimeoutException e) {
+                assertTrue(e.getMessage().contains("start"));
+            }
+            // Nothing was spawned, so there was nothing to wait for
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) < 1000);
+
+            holdingPermit.get(5, TimeUnit.SECONDS);
+            deadline = System.currentTimeMillis() + 5000;
+            while (scheduler.getInFlight() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, scheduler.getInFlight());
+            assertEquals(1, simulator.getStartCount());
+            assertEquals(LocalState.STOPPED, queued.getState());
+
+            first.stop();
+            assertEquals(0, simulator.getRunningCount());
+        } finally {
+            Local.setStartScheduler(null);
+        }
+    }
+
+    @Test
+    public void testIoExecutorHook() throws Exception {
+        final AtomicInteger tasks = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        final Executor counting = executor;
+        Local.setIoExecutor(new Executor() {
+            public void execute(Runnable command) {
+                tasks.incrementAndGet();
+                counting.execute(command);
+            }
+        });
+        try {
+            Local l = simulator.newLocal();
+            l.start(simulator.options("custom-executor"), Duration.ofSeconds(5));
+            l.stop(Duration.ofSeconds(5));
+            assertTrue(tasks.get() >= 2);
+        } finally {
+            Local.setIoExecutor(null);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentStartsAreCoalesced() throws Exception {
+        simulator.connectDelay(100);
+        final Local l = simulator.newLocal();
+        final List<String> transitions = Collections.synchronizedList(new ArrayList<String>());
+        l.addStateListener(new LocalStateListener() {
+            public void onStateChange(Local local, LocalState from, LocalState to) {
+                transitions.add(from + "->" + to);
+            }
+        });
+
+        final Map<String, String> options = simulator.options("coalesced");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<TunnelInfo>> starts = new ArrayList<Future<TunnelInfo>>();
+        for (int i = 0; i < 8; i++) {
+            starts.add(executor.submit(new Callable<TunnelInfo>() {
+                public TunnelInfo call() throws Exception {
+                    return l.startAsync(options, LocalThreads.io()).get();
+                }
+            }));
+        }
+        for (Future<TunnelInfo> start : starts) {
+            start.get(5, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(1, simulator.getStartCount());
+        assertEquals(LocalState.CONNECTED, l.getState());
+        assertTrue(l.isRunning());
+
+        l.stop();
+        l.stop();
+        assertEquals(LocalState.STOPPED, l.getState());
+        assertEquals(0, simulator.getRunningCount());
+        assertEquals(Arrays.asList("STOPPED->STARTING", "STARTING->CONNECTED",
+                "CONNECTED->STOPPING", "STOPPING->STOPPED"), transitions);
+    }
+
+    private List<Local> startLocals(String prefix, int count) throws Exception {
+        List<Local> locals = new ArrayList<Local>();
+        for (int i = 0; i < count; i++) {
+            Local local = simulator.newLocal();
+            local.start(simulator.options(prefix + "-" + i));
+            locals.add(local);
+        }
+        return locals;
+    }
+}
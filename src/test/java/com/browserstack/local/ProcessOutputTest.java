@@ -0,0 +1,120 @@
+package com.browserstack.local;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessOutputTest {
+    // Far more than a pipe buffer holds
+    private static final int LARGE_OUTPUT_BYTES = 1024 * 1024;
+    private static final int PIPE_BYTES = 16 * 1024;
+
+    private static final String RESPONSE = "{\"state\":\"connected\",\"pid\":1234}";
+
+    @Test
+    public void testStderrFilledBeforeStdoutCloses() throws Exception {
+        // Like the binary, writes all of stderr before it writes stdout and exits;
+        // it blocks as long as nobody reads stderr
+        final FakeProcess process = new FakeProcess();
+        Thread binary = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    process.stderr.write(filled(LARGE_OUTPUT_BYTES, 'e'));
+                    process.stderr.close();
+                    process.stdout.write(RESPONSE.getBytes("UTF-8"));
+                    process.stdout.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        binary.start();
+
+        ProcessOutput output = collect(process);
+        binary.join();
+        assertEquals(RESPONSE, output.getStdout());
+        assertEquals(RESPONSE, output.getResponse());
+        assertEquals(ProcessOutput.MAX_BUFFERED_BYTES, output.getStderr().length());
+    }
+
+    @Test
+    public void testOutputBeyondBoundIsDiscarded() throws Exception {
+        final FakeProcess process = new FakeProcess();
+        Thread binary = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    process.stderr.close();
+                    process.stdout.write(RESPONSE.getBytes("UTF-8"));
+                    process.stdout.write(filled(LARGE_OUTPUT_BYTES, 'o'));
+                    process.stdout.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        binary.start();
+
+        ProcessOutput output = collect(process);
+        binary.join();
+        // Read to the end, so the binary could exit, but only the bound is kept
+        assertEquals(ProcessOutput.MAX_BUFFERED_BYTES, output.getStdout().length());
+        assertTrue(output.getStdout().startsWith(RESPONSE));
+        assertEquals("", output.getStderr());
+        assertEquals(0, output.getExitCode());
+    }
+
+    private static ProcessOutput collect(final FakeProcess process) throws Exception {
+        FutureTask<ProcessOutput> collect = new FutureTask<ProcessOutput>(new Callable<ProcessOutput>() {
+            public ProcessOutput call() throws Exception {
+                return ProcessOutput.collect(process);
+            }
+        });
+        Thread collector = new Thread(collect);
+        collector.setDaemon(true);
+        collector.start();
+        // Fails with a TimeoutException instead of hanging if the pipes block
+        return collect.get(10, TimeUnit.SECONDS);
+    }
+
+    private static byte[] filled(int length, char c) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) c);
+        return bytes;
+    }
+
+    /**
+     * Process whose output goes through pipes with a small buffer, like the
+     * pipes of a real process.
+     */
+    private static class FakeProcess implements Local.LocalProcess {
+        final PipedOutputStream stdout = new PipedOutputStream();
+        final PipedOutputStream stderr = new PipedOutputStream();
+        private final PipedInputStream stdoutIn;
+        private final PipedInputStream stderrIn;
+
+        FakeProcess() throws IOException {
+            stdoutIn = new PipedInputStream(stdout, PIPE_BYTES);
+            stderrIn = new PipedInputStream(stderr, PIPE_BYTES);
+        }
+
+        public InputStream getInputStream() {
+            return stdoutIn;
+        }
+
+        public InputStream getErrorStream() {
+            return stderrIn;
+        }
+
+        public int waitFor() {
+            return 0;
+        }
+    }
+}
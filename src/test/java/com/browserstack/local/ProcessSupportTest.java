@@ -0,0 +1,33 @@
+package com.browserstack.local;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessSupportTest {
+
+    @Test
+    public void testIsAlive() {
+        long self = Long.parseLong(ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+        assertTrue(ProcessSupport.isAlive(self));
+        assertFalse(ProcessSupport.isAlive(Integer.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void testOnExitCompletesWhenProcessDies() throws Exception {
+        // The shell prints its own pid and then becomes the sleep process
+        Process process = new ProcessBuilder("/bin/sh", "-c", "echo $$; exec sleep 1").start();
+        long pid = Long.parseLong(new BufferedReader(new InputStreamReader(process.getInputStream())).readLine().trim());
+
+        assertTrue(ProcessSupport.isAlive(pid));
+        ProcessSupport.onExit(pid).get(10, TimeUnit.SECONDS);
+        process.waitFor();
+        assertFalse(ProcessSupport.isAlive(pid));
+    }
+}
@@ -0,0 +1,97 @@
+package com.browserstack.local;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReachabilityProbeTest {
+
+    @Test
+    public void testParsesOnlyTriplets() throws Exception {
+        assertEquals(2, ReachabilityProbe.targets("localhost,3000,0,127.0.0.1,8443,1").size());
+        assertEquals(8443, ReachabilityProbe.targets("localhost,3000,0,127.0.0.1,8443,1").get(1).getPort());
+        assertTrue(ReachabilityProbe.targets(null).isEmpty());
+    }
+
+    @Test
+    public void testWaitsForPortThatComesUp() throws Exception {
+        final int port = freePort();
+        Thread server = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                    ServerSocket socket = new ServerSocket();
+                    socket.bind(new InetSocketAddress("127.0.0.1", port));
+                    Thread.sleep(2000);
+                    socket.close();
+                } catch (Exception ignored) {
+                }
+            }
+        });
+        server.start();
+
+        ServerSocket up = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        try {
+            long begin = System.nanoTime();
+            ReachabilityProbe.await(options("127.0.0.1," + port + ",0,127.0.0.1," + up.getLocalPort() + ",0"),
+                    5, TimeUnit.SECONDS);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            assertTrue("probe took " + elapsed + "ms", elapsed >= 250 && elapsed < 2000);
+        } finally {
+            up.close();
+            server.join();
+        }
+    }
+
+    @Test
+    public void testReportsUnreachablePortAfterDeadline() throws Exception {
+        int port = freePort();
+        long begin = System.nanoTime();
+        try {
+            ReachabilityProbe.await(options("127.0.0.1," + port + ",0"), 300, TimeUnit.MILLISECONDS);
+            fail("Expected the probe to fail");
+        } catch (LocalException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("127.0.0.1:" + port));
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        assertTrue("probe took " + elapsed + "ms", elapsed >= 250 && elapsed < 2000);
+    }
+
+    @Test
+    public void testMissingFolderFailsRightAway() throws Exception {
+        String folder = Files.createTempDirectory("probe").toString() + "/missing";
+        LocalOptions options = LocalOptions.builder().key("key").folder(folder).build();
+        try {
+            ReachabilityProbe.await(options, 5, TimeUnit.SECONDS);
+            fail("Expected the probe to fail");
+        } catch (LocalException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(folder));
+        }
+    }
+
+    @Test
+    public void testPreflightOptionIsNotPassedToBinary() {
+        LocalOptions options = options("localhost,3000,0");
+        assertEquals(3000, options.getPreflightTimeoutMillis());
+        assertTrue(!options.startCommand("BrowserStackLocal").contains("-preflightTimeout"));
+    }
+
+    private static LocalOptions options(String only) {
+        return LocalOptions.builder().key("key").only(only).preflight(3, TimeUnit.SECONDS).build();
+    }
+
+    private static int freePort() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+}
@@ -0,0 +1,97 @@
+package com.browserstack.local;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StartSchedulerTest {
+    private final LocalSimulator simulator = new LocalSimulator();
+
+    @Test
+    public void testLimitsConcurrentStarts() throws Exception {
+        final StartScheduler scheduler = new StartScheduler(2, 2, 10, TimeUnit.SECONDS);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Void>> starts = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 8; i++) {
+            starts.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    long admitted = scheduler.acquire();
+                    int now = running.incrementAndGet();
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                    Thread.sleep(50);
+                    running.decrementAndGet();
+                    scheduler.release(admitted, true);
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> start : starts) {
+            start.get(5, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(8, scheduler.getStartCount());
+        assertEquals(0, scheduler.getQueueDepth());
+        assertTrue(scheduler.getMaxQueueDepth() > 0);
+        assertTrue(scheduler.getMaxWaitMillis() >= 50);
+    }
+
+    @Test
+    public void testLimitGrowsAdditivelyAndBacksOffOnFailure() throws Exception {
+        StartScheduler scheduler = new StartScheduler(2, 16, 10, TimeUnit.SECONDS);
+        // Each fast start adds 1/limit, about one per window of starts
+        for (int i = 0; i < 3; i++) {
+            scheduler.release(scheduler.acquire(), true);
+        }
+        assertEquals(3, scheduler.getLimit());
+
+        scheduler.release(scheduler.acquire(), false);
+        assertEquals(1, scheduler.getLimit());
+        assertEquals(1, scheduler.getFailureCount());
+
+        // A second failure within the latency target does not back off again
+        scheduler.release(scheduler.acquire(), false);
+        assertEquals(1, scheduler.getLimit());
+    }
+
+    @Test
+    public void testSlowStartsBackOff() throws Exception {
+        StartScheduler scheduler = new StartScheduler(4, 4, 10, TimeUnit.MILLISECONDS);
+        long admitted = scheduler.acquire();
+        Thread.sleep(20);
+        scheduler.release(admitted, true);
+        assertEquals(2, scheduler.getLimit());
+        assertEquals(0, scheduler.getFailureCount());
+    }
+
+    @Test
+    public void testLocalStartsGoThroughScheduler() throws Exception {
+        StartScheduler scheduler = new StartScheduler(1, 1, 10, TimeUnit.SECONDS);
+        Local.setStartScheduler(scheduler);
+        try {
+            for (int i = 0; i < 3; i++) {
+                Local local = simulator.newLocal();
+                local.start(simulator.options("scheduled-" + i));
+                local.stop();
+            }
+        } finally {
+            Local.setStartScheduler(null);
+        }
+        assertEquals(3, scheduler.getStartCount());
+        assertEquals(0, scheduler.getInFlight());
+    }
+}
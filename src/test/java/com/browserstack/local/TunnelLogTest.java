@@ -0,0 +1,127 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TunnelLogTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("local", ".log");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testLinesAreStreamedToListener() throws Exception {
+        append("line of an earlier tunnel\n");
+        final LinkedBlockingQueue<TunnelLogEvent> received = new LinkedBlockingQueue<TunnelLogEvent>();
+        TunnelLog log = new TunnelLog(10, new TunnelLogListener() {
+            public void onLogEvent(TunnelLogEvent event) {
+                received.add(event);
+            }
+        });
+        log.follow(file.toPath());
+
+        append("2024-01-01 10:00:00 [INFO] Connecting\n2024-01-01 10:00:01 [ERR");
+        TunnelLogEvent event = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertEquals(TunnelLogEvent.Level.INFO, event.getLevel());
+        assertEquals("2024-01-01 10:00:00 [INFO] Connecting", event.getLine());
+
+        append("OR] Tunnel dropped\r\n");
+        event = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertEquals(TunnelLogEvent.Level.ERROR, event.getLevel());
+        assertEquals("2024-01-01 10:00:01 [ERROR] Tunnel dropped", event.getLine());
+        log.unfollow();
+    }
+
+    @Test
+    public void testRingBufferKeepsMostRecentLines() throws Exception {
+        TunnelLog log = new TunnelLog(3, null);
+        log.follow(file.toPath());
+        append("one\ntwo WARNING\nthree\nfour\nfive DEBUG\n");
+        log.unfollow();
+
+        List<TunnelLogEvent> recent = log.recent();
+        assertEquals(3, recent.size());
+        assertEquals("three", recent.get(0).getLine());
+        assertEquals(TunnelLogEvent.Level.UNKNOWN, recent.get(0).getLevel());
+        assertEquals("four", recent.get(1).getLine());
+        assertEquals(TunnelLogEvent.Level.DEBUG, recent.get(2).getLevel());
+    }
+
+    @Test
+    public void testUnfollowWhileLinesAreAppended() throws Exception {
+        final CountDownLatch publishing = new CountDownLatch(1);
+        final TunnelLog log = new TunnelLog(10, new TunnelLogListener() {
+            public void onLogEvent(TunnelLogEvent event) {
+                if (publishing.getCount() == 0) return;
+                publishing.countDown();
+                try {
+                    // Keeps the tailer in the middle of a read while unfollow() starts
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        log.follow(file.toPath());
+
+        final AtomicBoolean appending = new AtomicBoolean(true);
+        Thread appender = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (appending.get()) {
+                        append("first\nsecond\n");
+                        Thread.sleep(10);
+                    }
+                } catch (Exception ignored) {
+                }
+            }
+        });
+        appender.start();
+        assertTrue(publishing.await(5, TimeUnit.SECONDS));
+
+        Thread unfollow = new Thread(new Runnable() {
+            public void run() {
+                log.unfollow();
+            }
+        });
+        unfollow.start();
+        unfollow.join(10000);
+        appending.set(false);
+        appender.join();
+        assertFalse("unfollow() did not return", unfollow.isAlive());
+    }
+
+    private void append(String text) throws Exception {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TunnelRegistryTest {
+    private File dir;
+    private TunnelRegistry registry;
+    private int livePid;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("bs-registry").toFile();
+        registry = new TunnelRegistry(new File(dir, "tunnels.properties"));
+        // Any live process will do as the tunnel, use the JVM running the test
+        livePid = (int) ProcessSupport.currentPid();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testOptionsHashIgnoresNonTunnelOptions() {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("key", "abc");
+        options.put("localIdentifier", "suite");
+        String hash = TunnelRegistry.optionsHash(options);
+
+        options.put("binarypath", "/opt/BrowserStackLocal");
+        options.put("shareTunnel", "true");
+        assertEquals(hash, TunnelRegistry.optionsHash(options));
+
+        options.put("localIdentifier", "other");
+        assertNotEquals(hash, TunnelRegistry.optionsHash(options));
+    }
+
+    @Test
+    public void testLastDetachStopsTunnel() throws Exception {
+        TunnelRegistry.Session session = registry.open();
+        assertNull(session.attach("abc"));
+        session.register("abc", livePid, "suite");
+        session.close();
+
+        session = registry.open();
+        TunnelRegistry.Entry entry = session.attach("abc");
+        assertNotNull(entry);
+        assertEquals(livePid, entry.pid);
+        assertEquals("suite", entry.localIdentifier);
+        session.close();
+
+        session = registry.open();
+        assertFalse(session.detach("abc"));
+        session.close();
+
+        session = registry.open();
+        assertTrue(session.detach("abc"));
+        assertNull(session.attach("abc"));
+        session.close();
+    }
+
+    @Test
+    public void testDeadTunnelsArePruned() throws Exception {
+        TunnelRegistry.Session session = registry.open();
+        session.register("abc", Integer.MAX_VALUE - 1, "suite");
+        session.close();
+
+        session = registry.open();
+        assertNull(session.attach("abc"));
+        session.close();
+    }
+}
@@ -0,0 +1,57 @@
+package com.browserstack.local;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TunnelStatusParserTest {
+
+    @Test
+    public void testConnected() throws Exception {
+        TunnelInfo info = TunnelStatusParser.parse(
+                "{\"state\":\"connected\",\"pid\":4321,\"message\":{\"message\":\"Connected\"}}\n");
+        assertTrue(info.isConnected());
+        assertEquals(4321, info.getPid());
+        assertEquals("Connected", info.getMessage());
+    }
+
+    @Test
+    public void testSkipsOtherValues() throws Exception {
+        TunnelInfo info = TunnelStatusParser.parse("{ \"logs\": [1, -2.5e3, {\"a\": [true, null]}, \"x\\\"]\"],"
+                + " \"state\" : \"disconnected\", \"message\": {\"code\": 7, \"message\": \"Invalid key \\u00e9\\n\"} }");
+        assertEquals("disconnected", info.getState());
+        assertEquals(0, info.getPid());
+        assertEquals("Invalid key \u00e9\n", info.getMessage());
+    }
+
+    @Test
+    public void testStopResponse() throws Exception {
+        TunnelInfo info = TunnelStatusParser.parse(
+                "{\"status\":\"success\",\"message\":\"BrowserStackLocal stopped successfully\"}");
+        assertEquals("", info.getState());
+        assertEquals("BrowserStackLocal stopped successfully", info.getMessage());
+    }
+
+    @Test
+    public void testMissingMessage() throws Exception {
+        TunnelInfo info = TunnelStatusParser.parse("{\"state\":\"connected\",\"pid\":\"12\"}");
+        assertEquals(12, info.getPid());
+        assertNull(info.getMessage());
+    }
+
+    @Test
+    public void testRejectsMalformedResponse() {
+        String[] responses = {"", "Killed", "{\"state\":\"connected\"", "{\"state\" \"connected\"}", "{} {}", "[]"};
+        for (String response : responses) {
+            try {
+                TunnelStatusParser.parse(response);
+                fail("Expected " + response + " to be rejected");
+            } catch (LocalException e) {
+                assertTrue(e.getMessage().startsWith("Unexpected response"));
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.browserstack.local;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TunnelSupervisorTest {
+    private File binary;
+    private final StubLocal local = new StubLocal();
+
+    @Before
+    public void setUp() throws Exception {
+        binary = File.createTempFile("BrowserStackLocal", ".sh");
+        FileWriter writer = new FileWriter(binary);
+        writer.write("#!/bin/sh\necho \"BrowserStack Local version 8.0\"\n");
+        writer.close();
+        binary.setExecutable(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        local.stop();
+        binary.delete();
+    }
+
+    @Test
+    public void testReconnectsWithBackoffAndRecordsDowntime() throws Exception {
+        local.enableSupervisor(20, 200, TimeUnit.MILLISECONDS);
+        local.start(options());
+        int pid = local.pid;
+
+        // The first two restarts fail, and none gets through before the gate opens
+        local.failures.set(2);
+        local.gate = new CountDownLatch(1);
+        local.exits.get(pid).complete(null);
+
+        assertFalse(local.awaitAvailable(100, TimeUnit.MILLISECONDS));
+        local.gate.countDown();
+        assertTrue(local.awaitAvailable(5, TimeUnit.SECONDS));
+        awaitReconnects(1);
+
+        assertEquals(1, local.getReconnectCount());
+        assertTrue(local.isRunning());
+        assertTrue(pid != local.pid);
+        // The initial start, one immediate restart and two retries after 10-20ms and 20-40ms
+        List<Long> starts = local.startTimes();
+        assertEquals(4, starts.size());
+        assertTrue(starts.get(2) - starts.get(1) >= TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue(starts.get(3) - starts.get(2) >= TimeUnit.MILLISECONDS.toNanos(20));
+
+        long downtime = local.getDowntimeMillis();
+        assertTrue("downtime " + downtime, downtime >= 100);
+        Thread.sleep(50);
+        // Not counted while the tunnel is up
+        assertEquals(downtime, local.getDowntimeMillis());
+    }
+
+    @Test
+    public void testStopWhileDownEndsSupervision() throws Exception {
+        local.enableSupervisor(10, 20, TimeUnit.MILLISECONDS);
+        local.start(options());
+        local.failures.set(Integer.MAX_VALUE);
+        local.exits.get(local.pid).complete(null);
+        while (local.startTimes().size() < 3) {
+            Thread.sleep(5);
+        }
+
+        local.stop();
+        long begin = System.nanoTime();
+        assertFalse(local.awaitAvailable(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(1));
+        int attempts = local.startTimes().size();
+        Thread.sleep(100);
+        assertEquals(attempts, local.startTimes().size());
+        assertEquals(0, local.getReconnectCount());
+    }
+
+    @Test
+    public void testManualStartCancelsPendingRetry() throws Exception {
+        local.enableSupervisor(200, 400, TimeUnit.MILLISECONDS);
+        local.start(options());
+        local.failures.set(1);
+        local.exits.get(local.pid).complete(null);
+        // The immediate restart fails, the next one is due after 100-200ms
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((local.startTimes().size() < 2 || local.getState() != LocalState.FAILED)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        local.start(options());
+        int pid = local.pid;
+        Thread.sleep(400);
+        assertEquals(3, local.startTimes().size());
+        assertEquals(LocalState.CONNECTED, local.getState());
+        assertEquals(pid, local.pid);
+        assertEquals(0, local.getReconnectCount());
+
+        local.stop();
+        assertEquals(1, local.stops.get());
+    }
+
+    private Map<String, String> options() {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("key", "dummy");
+        options.put("binarypath", binary.getAbsolutePath());
+        return options;
+    }
+
+    private void awaitReconnects(int reconnects) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (local.getReconnectCount() < reconnects && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Answers like the binary without forking; its tunnels exit when their
+     * future in {@link #exits} is completed.
+     */
+    private static class StubLocal extends Local {
+        private static final AtomicInteger PIDS = new AtomicInteger(200000);
+
+        final Map<Integer, CompletableFuture<Void>> exits = new ConcurrentHashMap<Integer, CompletableFuture<Void>>();
+        // Number of upcoming starts that fail
+        final AtomicInteger failures = new AtomicInteger();
+        // Holds up starts while closed
+        volatile CountDownLatch gate;
+        private final List<Long> startTimes = new ArrayList<Long>();
+        final AtomicInteger stops = new AtomicInteger();
+
+        List<Long> startTimes() {
+            synchronized (startTimes) {
+                return new ArrayList<Long>(startTimes);
+            }
+        }
+
+        @Override
+        protected LocalProcess runCommand(List<String> command) throws IOException {
+            final String response;
+            if (command.contains("start")) {
+                synchronized (startTimes) {
+                    startTimes.add(System.nanoTime());
+                }
+                CountDownLatch closed = gate;
+                if (closed != null) {
+                    try {
+                        closed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (failures.getAndDecrement() > 0) {
+                    response = "{\"state\":\"disconnected\",\"message\":{\"message\":\"Simulated failure\"}}";
+                } else {
+                    int pid = PIDS.incrementAndGet();
+                    exits.put(pid, new CompletableFuture<Void>());
+                    response = "{\"state\":\"connected\",\"pid\":" + pid + ",\"message\":{\"message\":\"Connected\"}}";
+                }
+            } else {
+                stops.incrementAndGet();
+                response = "{\"status\":\"success\",\"message\":\"BrowserStackLocal stopped successfully\"}";
+            }
+            return new LocalProcess() {
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8));
+                }
+
+                public InputStream getErrorStream() {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+
+                public int waitFor() {
+                    return 0;
+                }
+            };
+        }
+
+        @Override
+        CompletableFuture<Void> watchProcessExit(int pid) {
+            CompletableFuture<Void> exit = exits.get(pid);
+            return exit != null ? exit : CompletableFuture.<Void>completedFuture(null);
+        }
+
+        @Override
+        void killProcess(int pid) {
+            CompletableFuture<Void> exit = exits.get(pid);
+            if (exit != null) exit.complete(null);
+        }
+    }
+}